@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf.benchmark;
+
+import fr.ybonnel.breizhcamppdf.DataService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups of the renderers in DataService, each benchmark walks the whole programme.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataServiceBenchmark {
+
+    private DataService service;
+
+    @Setup
+    public void setUp() throws IOException {
+        service = Fixtures.load();
+    }
+
+    @Benchmark
+    public void getCreneaux(Blackhole blackhole) {
+        for (String date : service.getDates()) {
+            blackhole.consume(service.getCreneaux().get(date));
+        }
+    }
+
+    @Benchmark
+    public void getRooms(Blackhole blackhole) {
+        for (String date : service.getDates()) {
+            blackhole.consume(service.getRooms(date));
+        }
+    }
+
+    @Benchmark
+    public void getTalkByDateAndCreneauxAndRoom(Blackhole blackhole) {
+        for (String date : service.getDates()) {
+            for (String creneau : service.getCreneaux().get(date)) {
+                for (String room : service.getRooms(date)) {
+                    blackhole.consume(service.getTalkByDateAndCreneauxAndRoom(date, creneau, room));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf.benchmark;
+
+import fr.ybonnel.breizhcamppdf.AvatarService;
+import fr.ybonnel.breizhcamppdf.DataService;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+
+/**
+ * Programme of the benchmarks, read from the fixtures instead of breizhcamp.org.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * Point the services to the fixtures, load the programme and its avatars.
+     * To call before any use of the renderers, as some properties are read once.
+     */
+    static DataService load() throws IOException {
+        URL schedule = Fixtures.class.getResource("/fixtures/schedule.json");
+        System.setProperty("schedule.url", schedule.toString());
+        System.setProperty("talks.url", resolve(schedule, "talks.json"));
+        System.setProperty("assets.url", resolve(schedule, "img/"));
+        File assetCache = Files.createTempDirectory("breizhcamp-pdf-benchmark").toFile();
+        assetCache.deleteOnExit();
+        System.setProperty("asset.cache.dir", assetCache.getPath());
+
+        DataService service = DataService.load();
+        AvatarService.INSTANCE.prefetch(service.getAvatarUrls());
+        return service;
+    }
+
+    private static String resolve(URL base, String path) throws MalformedURLException {
+        return new URL(base, path).toString();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf.benchmark;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.PageSize;
+import com.itextpdf.text.pdf.PdfWriter;
+import fr.ybonnel.breizhcamppdf.DataService;
+import fr.ybonnel.breizhcamppdf.Descriptions;
+import fr.ybonnel.breizhcamppdf.FullProgRenderer;
+import fr.ybonnel.breizhcamppdf.MiniProgTableRenderer;
+import fr.ybonnel.breizhcamppdf.MiniProgTextRenderer;
+import fr.ybonnel.breizhcamppdf.RoomProgRenderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of each PDF, from a loaded programme with its avatars in cache.
+ * <p>
+ * The descriptions are emptied before each rendering of the programme,
+ * except for {@link #fullProgWarmCaches()} which measures a rendering of an unchanged programme.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RendererBenchmark {
+
+    private DataService service;
+
+    @Setup
+    public void setUp() throws IOException {
+        service = Fixtures.load();
+    }
+
+    /**
+     * Empties the caches filled by the previous renderings.
+     */
+    @State(Scope.Thread)
+    public static class EmptyCaches {
+        /**
+         * Not a trial or an iteration level, the caches would be filled after the first rendering.
+         */
+        @Setup(Level.Invocation)
+        public void emptyCaches() {
+            Descriptions.INSTANCE.invalidateAll();
+        }
+    }
+
+    @Benchmark
+    public byte[] fullProg(EmptyCaches caches) throws DocumentException, IOException {
+        return renderFullProg();
+    }
+
+    @Benchmark
+    public byte[] fullProgWarmCaches() throws DocumentException, IOException {
+        return renderFullProg();
+    }
+
+    private byte[] renderFullProg() throws DocumentException, IOException {
+        Document document = new Document(PageSize.A4.rotate());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PdfWriter pdfWriter = PdfWriter.getInstance(document, output);
+        document.open();
+        new FullProgRenderer(document, pdfWriter, service).render();
+        document.close();
+        return output.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] roomProg() throws DocumentException, IOException {
+        Document document = new Document(PageSize.A4.rotate());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PdfWriter pdfWriter = PdfWriter.getInstance(document, output);
+        document.open();
+        new RoomProgRenderer(document, pdfWriter, service).render();
+        document.close();
+        return output.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] miniProgText() throws DocumentException, IOException {
+        Document document = new Document(PageSize.A6);
+        document.setMargins(0, 0, 0, 0);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PdfWriter pdfWriter = PdfWriter.getInstance(document, output);
+        document.open();
+        new MiniProgTextRenderer(document, pdfWriter, service).render();
+        document.close();
+        return output.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] miniProgTable() throws DocumentException, IOException {
+        Document document = new Document(PageSize.A6);
+        document.setMargins(0, 0, 0, 0);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PdfWriter pdfWriter = PdfWriter.getInstance(document, output);
+        document.open();
+        new MiniProgTableRenderer(document, pdfWriter, service).render();
+        document.close();
+        return output.toByteArray();
+    }
+}
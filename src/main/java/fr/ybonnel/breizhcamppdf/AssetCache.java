@@ -0,0 +1,195 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Disk cache of remote assets (avatars, logos).
+ * <p>
+ * Contents are stored by sha1 in "objects", and each url has an entry in "urls" with the sha1 of its content,
+ * the ETag / Last-Modified sent by the server and the time of the last check.
+ * An entry younger than maxAge is used without any request, an older one is revalidated with a conditional GET.
+ * If the server can't be reached, the cached content is used whatever its age.
+ */
+public class AssetCache {
+
+    public static final AssetCache INSTANCE = new AssetCache(
+            new File(System.getProperty("asset.cache.dir", new File(System.getProperty("java.io.tmpdir"), "breizhcamp-pdf-assets").getPath())),
+            TimeUnit.MINUTES.toMillis(Long.getLong("asset.cache.maxAge.minutes", TimeUnit.DAYS.toMinutes(1))));
+
+    private static final String SHA1 = "sha1";
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String CHECKED = "checked";
+
+    private final File objects;
+    private final File urls;
+    private final long maxAge;
+
+    public AssetCache(File directory, long maxAge) {
+        this.objects = new File(directory, "objects");
+        this.urls = new File(directory, "urls");
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Get the content of an url, from the disk if possible.
+     * @param url url of the asset.
+     * @return content of the asset.
+     * @throws IOException if the asset can't be downloaded and isn't in cache.
+     */
+    public byte[] get(String url) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return load(url);
+        } finally {
+            Metrics.INSTANCE.observe(Metrics.Phase.IMAGE_FETCH, System.nanoTime() - start);
+        }
+    }
+
+    private byte[] load(String url) throws IOException {
+        if (!url.startsWith("http:") && !url.startsWith("https:")) {
+            try (InputStream input = UpstreamClient.INSTANCE.openStream(new URL(url))) {
+                return ByteStreams.toByteArray(input);
+            }
+        }
+
+        File entryFile = new File(urls, sha1(url.getBytes(StandardCharsets.UTF_8)) + ".properties");
+        Properties entry = readEntry(entryFile);
+        File content = entry == null ? null : new File(objects, entry.getProperty(SHA1));
+        if (content != null && !content.isFile()) {
+            entry = null;
+            content = null;
+        }
+
+        if (entry != null && System.currentTimeMillis() - Long.parseLong(entry.getProperty(CHECKED, "0")) < maxAge) {
+            return Files.readAllBytes(content.toPath());
+        }
+
+        try {
+            Map<String, String> headers = new HashMap<>();
+            if (entry != null) {
+                if (entry.getProperty(ETAG) != null) {
+                    headers.put("If-None-Match", entry.getProperty(ETAG));
+                }
+                if (entry.getProperty(LAST_MODIFIED) != null) {
+                    headers.put("If-Modified-Since", entry.getProperty(LAST_MODIFIED));
+                }
+            }
+            HttpURLConnection connection = UpstreamClient.INSTANCE.connect(new URL(url), headers);
+            if (entry != null && connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                UpstreamClient.INSTANCE.discard(connection);
+                entry.setProperty(CHECKED, Long.toString(System.currentTimeMillis()));
+                writeEntry(entryFile, entry);
+                return Files.readAllBytes(content.toPath());
+            }
+            byte[] data;
+            try (InputStream input = UpstreamClient.INSTANCE.getBody(connection)) {
+                data = ByteStreams.toByteArray(input);
+            }
+            store(entryFile, url, data, connection);
+            return data;
+        } catch (IOException e) {
+            if (content == null) {
+                throw e;
+            }
+            System.err.println("Using cached " + url + " : " + e.getMessage());
+            return Files.readAllBytes(content.toPath());
+        }
+    }
+
+    private void store(File entryFile, String url, byte[] data, URLConnection connection) throws IOException {
+        String sha1 = sha1(data);
+        File content = new File(objects, sha1);
+        if (!content.isFile()) {
+            write(content, data);
+        }
+        Properties entry = new Properties();
+        entry.setProperty("url", url);
+        entry.setProperty(SHA1, sha1);
+        if (connection.getHeaderField("ETag") != null) {
+            entry.setProperty(ETAG, connection.getHeaderField("ETag"));
+        }
+        if (connection.getHeaderField("Last-Modified") != null) {
+            entry.setProperty(LAST_MODIFIED, connection.getHeaderField("Last-Modified"));
+        }
+        entry.setProperty(CHECKED, Long.toString(System.currentTimeMillis()));
+        writeEntry(entryFile, entry);
+    }
+
+    private static Properties readEntry(File entryFile) {
+        if (!entryFile.isFile()) {
+            return null;
+        }
+        Properties entry = new Properties();
+        try (InputStream input = new FileInputStream(entryFile)) {
+            entry.load(input);
+        } catch (IOException e) {
+            return null;
+        }
+        return entry.getProperty(SHA1) == null ? null : entry;
+    }
+
+    private static void writeEntry(File entryFile, Properties entry) throws IOException {
+        File directory = entryFile.getParentFile();
+        directory.mkdirs();
+        File tmp = File.createTempFile("entry", ".tmp", directory);
+        try (OutputStream output = new FileOutputStream(tmp)) {
+            entry.store(output, null);
+        }
+        move(tmp, entryFile);
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        File directory = file.getParentFile();
+        directory.mkdirs();
+        File tmp = File.createTempFile("object", ".tmp", directory);
+        Files.write(tmp.toPath(), data);
+        move(tmp, file);
+    }
+
+    /**
+     * Files are written in a temporary file then moved, so that concurrent readers never see a partial file.
+     */
+    private static void move(File from, File to) throws IOException {
+        Files.move(from.toPath(), to.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String sha1(byte[] data) {
+        return Hashing.sha1().hashBytes(data).toString();
+    }
+}
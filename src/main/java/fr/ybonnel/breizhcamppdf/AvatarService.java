@@ -16,45 +16,259 @@
  */
 package fr.ybonnel.breizhcamppdf;
 
-import com.itextpdf.text.BadElementException;
+import com.google.common.base.Ticker;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.itextpdf.text.Image;
 
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.net.URL;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Cache of images.
+ * <p>
+ * Only one download runs for an url, concurrent callers wait for it.
+ * An avatar which can't be loaded is not retried before {@link #FAILURE_TTL}.
+ * Images returned are copies of the cached ones, as iText scales the images it lays out.
+ * Copies share the id of the cached image, so an image is embedded only once in a PDF.
+ */
 public enum AvatarService {
     INSTANCE;
 
-    private Map<String, Image> cache = new HashMap<>();
+    /**
+     * Height of the avatars in the PDF, in points.
+     */
+    private static final int HEIGHT = 40;
+
+    /**
+     * Resolution of the avatars in the PDF, used to downsample them.
+     */
+    private static final int DPI = Integer.getInteger("avatar.dpi", 300);
+
+    private static final float JPEG_QUALITY = Float.parseFloat(System.getProperty("avatar.jpeg.quality", "0.85"));
 
-    public Image getImage(URL url) throws BadElementException, IOException {
-        if (!cache.containsKey(url.toString())) {
-            cache.put(url.toString(), Image.getInstance(url));
+    /**
+     * Number of avatars downloaded in parallel by {@link #prefetch(Collection)}.
+     */
+    private static final int PREFETCH_PARALLELISM = Integer.getInteger("avatar.prefetch.parallelism", 8);
+
+    /**
+     * Time before retrying an avatar which failed to load.
+     */
+    private static final long FAILURE_TTL = TimeUnit.MINUTES.toNanos(Long.getLong("avatar.failure.ttl.minutes", 10));
+
+    private final LoadingCache<String, Image> avatars = CacheBuilder.newBuilder().recordStats().build(new CacheLoader<String, Image>() {
+        @Override
+        public Image load(String url) throws Exception {
+            System.out.println(url);
+            Image avatar = Image.getInstance(downsample(AssetCache.INSTANCE.get(url)));
+            int height = HEIGHT;
+            float factor = ((float)height)/ avatar.getHeight();
+            int width = (int)(avatar.getWidth() * factor);
+            avatar.scaleToFit(width, height);
+            return avatar;
         }
-        return cache.get(url.toString());
-    }
+    });
+
+    private volatile Ticker ticker = Ticker.systemTicker();
+
+    /**
+     * Avatars which failed to load, with the time until which they are not retried, read from {@link #ticker}.
+     */
+    private final ConcurrentMap<String, Long> failures = new ConcurrentHashMap<>();
 
-    public Image getImage(String url) throws BadElementException, IOException {
-        if (url == null) {
+    private final AtomicLong failureHits = new AtomicLong();
+
+    /**
+     * @param url url of the avatar.
+     * @return the avatar scaled to 40pt height, null if it can't be loaded.
+     */
+    public Image getImage(String url) {
+        if (url == null || isFailed(url)) {
             return null;
         }
-        if (!cache.containsKey(url)) {
-            System.out.println(url);
-            try {
-                Image avatar = Image.getInstance(url);
-                int height = 40;
-                float factor = ((float)height)/ avatar.getHeight();
-                int width = (int)(avatar.getWidth() * factor);
-                avatar.scaleToFit(width, height);
-                cache.put(url, avatar);
+        try {
+            return Image.getInstance(avatars.get(url));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            System.err.println("Can't load avatar " + url + " : " + e.getCause());
+            failures.put(url, ticker.read() + FAILURE_TTL);
+            return null;
+        }
+    }
+
+    private boolean isFailed(String url) {
+        Long retryAfter = failures.get(url);
+        if (retryAfter == null) {
+            return false;
+        }
+        if (retryAfter - ticker.read() > 0) {
+            failureHits.incrementAndGet();
+            return true;
+        }
+        failures.remove(url, retryAfter);
+        return false;
+    }
+
+    /**
+     * Replace the clock of the failures, for tests.
+     */
+    void setTicker(Ticker ticker) {
+        this.ticker = ticker;
+    }
+
+    /**
+     * Resample an avatar to the size it is printed at, and encode it again : in JPEG, or in PNG if it has transparency.
+     * @param source content of the avatar.
+     * @return content of the downsampled avatar, or the source if it is already small enough or can't be decoded.
+     */
+    private static byte[] downsample(byte[] source) {
+        try {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(source));
+            int height = (int) Math.ceil(HEIGHT * DPI / 72f);
+            if (image == null || image.getHeight() <= height) {
+                return source;
             }
-            catch (Exception ex) {
+            int width = Math.max(1, Math.round(image.getWidth() * (float) height / image.getHeight()));
 
+            // Halve the size step by step, a single bilinear step from a big image loses too much.
+            boolean alpha = image.getColorModel().hasAlpha();
+            BufferedImage resampled = image;
+            do {
+                int stepWidth = Math.max(width, resampled.getWidth() / 2);
+                int stepHeight = Math.max(height, resampled.getHeight() / 2);
+                BufferedImage step = new BufferedImage(stepWidth, stepHeight,
+                        alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+                Graphics2D graphics = step.createGraphics();
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.drawImage(resampled, 0, 0, stepWidth, stepHeight, null);
+                graphics.dispose();
+                resampled = step;
+            } while (resampled.getWidth() != width || resampled.getHeight() != height);
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            if (alpha && isTranslucent(resampled)) {
+                ImageIO.write(resampled, "png", output);
+            } else {
+                writeJpeg(alpha ? withoutAlpha(resampled) : resampled, output);
             }
+            return output.toByteArray();
+        } catch (IOException | RuntimeException e) {
+            // iText may still read images which ImageIO can't decode.
+            System.err.println("Can't downsample avatar : " + e);
+            return source;
         }
-        return cache.get(url);
+    }
+
+    private static boolean isTranslucent(BufferedImage image) {
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                if (image.getRGB(x, y) >>> 24 != 0xFF) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static BufferedImage withoutAlpha(BufferedImage image) {
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = rgb.createGraphics();
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return rgb;
+    }
+
+    private static void writeJpeg(BufferedImage image, ByteArrayOutputStream output) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(JPEG_QUALITY);
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(output)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Download avatars in parallel, so that rendering only hits the cache.
+     * @param urls avatars to download.
+     */
+    public void prefetch(Collection<String> urls) {
+        List<Callable<Image>> tasks = new ArrayList<>();
+        for (final String url : urls) {
+            if (url != null && !avatars.asMap().containsKey(url) && !isFailed(url)) {
+                tasks.add(new Callable<Image>() {
+                    @Override
+                    public Image call() throws Exception {
+                        return getImage(url);
+                    }
+                });
+            }
+        }
+        if (tasks.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(PREFETCH_PARALLELISM, tasks.size()));
+        try {
+            executor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return number of avatars found in cache, including callers which waited for a download in progress.
+     */
+    public long getHitCount() {
+        return avatars.stats().hitCount();
+    }
+
+    /**
+     * @return number of avatars downloaded.
+     */
+    public long getMissCount() {
+        return avatars.stats().missCount();
+    }
+
+    /**
+     * @return number of avatars which failed to download.
+     */
+    public long getFailureCount() {
+        return avatars.stats().loadExceptionCount();
+    }
+
+    /**
+     * @return number of avatars not retried because they failed recently.
+     */
+    public long getFailureHitCount() {
+        return failureHits.get();
     }
 
 }
@@ -1,5 +1,7 @@
 package fr.ybonnel.breizhcamppdf;
 
+import java.io.IOException;
+
 import static fr.ybonnel.simpleweb4j.SimpleWeb4j.*;
 
 /**
@@ -18,12 +20,57 @@ public class BreizhcampPdf {
         // Set the path to static resources.
         setPublicResourcesPath("/fr/ybonnel/breizhcamppdf/public");
 
-        addSpecificHandler(new PdfHandler());
+        // Load the icons now, the server must not start without the default one.
+        System.out.println(FormatIcons.INSTANCE.getCount() + " format icons loaded");
+
+        PdfHandler pdfHandler = new PdfHandler();
+        addSpecificHandler(pdfHandler);
+        addSpecificHandler(new MetricsHandler());
+
+        // Keep the programme up to date.
+        ProgrammeStore.INSTANCE.startRefresh();
+
+        if (isWarmUpEnabled()) {
+            warmUp(pdfHandler);
+        }
 
         // Start the server.
         start(waitStop);
     }
 
+    /**
+     * Warm-up is enabled with the "warmup" system property or the WARMUP environment variable.
+     */
+    private static boolean isWarmUpEnabled() {
+        return Boolean.parseBoolean(System.getProperty("warmup", System.getenv("WARMUP")));
+    }
+
+    /**
+     * Load the data, the images and render every PDF served once, so that the first visitor gets cached PDFs.
+     * @param pdfHandler handler to fill.
+     */
+    private static void warmUp(PdfHandler pdfHandler) {
+        try {
+            long start = System.currentTimeMillis();
+            DataService service = ProgrammeStore.INSTANCE.get();
+            long dataLoaded = System.currentTimeMillis();
+            System.out.println("Warm-up : programme loaded in " + (dataLoaded - start) + "ms");
+
+            AvatarService.INSTANCE.prefetch(service.getAvatarUrls());
+            long imagesLoaded = System.currentTimeMillis();
+            System.out.println("Warm-up : avatars loaded in " + (imagesLoaded - dataLoaded) + "ms");
+
+            for (PdfVariant variant : PdfVariant.getServed()) {
+                long renderStart = System.currentTimeMillis();
+                pdfHandler.getPdf(variant);
+                System.out.println("Warm-up : " + variant.getPath() + " rendered in " + (System.currentTimeMillis() - renderStart) + "ms");
+            }
+            System.out.println("Warm-up done in " + (System.currentTimeMillis() - start) + "ms");
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Warm-up failed, PDFs will be rendered on first request : " + e);
+        }
+    }
+
     /**
      * Get the port.
      * <ul>
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Byte ranges of the Range header (RFC 7233), to serve parts of a content held in memory.
+ */
+public final class ByteRanges {
+
+    private static final String UNIT = "bytes=";
+
+    /**
+     * Above this number of ranges the whole content is sent, many small ranges cost more than the content.
+     */
+    private static final int MAX_RANGES = 16;
+
+    /**
+     * A satisfiable range, with its bounds included.
+     */
+    public static class Range {
+        private final long first;
+        private final long last;
+
+        private Range(long first, long last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        public long getFirst() {
+            return first;
+        }
+
+        public long getLast() {
+            return last;
+        }
+
+        public long getLength() {
+            return last - first + 1;
+        }
+
+        private String getContentRange(long length) {
+            return "bytes " + first + '-' + last + '/' + length;
+        }
+    }
+
+    private ByteRanges() {
+    }
+
+    /**
+     * @param header value of the Range header.
+     * @param length length of the content.
+     * @return satisfiable ranges requested, sorted and with overlapping or adjacent ones merged (RFC 7233 section 6.1),
+     * empty if none is satisfiable, null if the header is invalid or has too many ranges, the whole content is then sent.
+     */
+    public static List<Range> parse(String header, long length) {
+        if (!header.trim().toLowerCase(Locale.ENGLISH).startsWith(UNIT)) {
+            return null;
+        }
+        String[] specs = header.trim().substring(UNIT.length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<Range> ranges = new ArrayList<>();
+        try {
+            for (String spec : specs) {
+                spec = spec.trim();
+                int dash = spec.indexOf('-');
+                if (dash < 0) {
+                    return null;
+                }
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                if (first.isEmpty()) {
+                    // Suffix range : the last bytes.
+                    long suffix = Long.parseLong(last);
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    if (suffix > 0 && length > 0) {
+                        ranges.add(new Range(Math.max(0, length - suffix), length - 1));
+                    }
+                } else {
+                    long firstByte = Long.parseLong(first);
+                    long lastByte = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                    if (firstByte < 0 || lastByte < firstByte) {
+                        return null;
+                    }
+                    if (firstByte < length) {
+                        ranges.add(new Range(firstByte, Math.min(lastByte, length - 1)));
+                    }
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return coalesce(ranges);
+    }
+
+    private static List<Range> coalesce(List<Range> ranges) {
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+        Collections.sort(ranges, new Comparator<Range>() {
+            @Override
+            public int compare(Range range, Range other) {
+                return Long.compare(range.first, other.first);
+            }
+        });
+        List<Range> coalesced = new ArrayList<>();
+        Range current = ranges.get(0);
+        for (Range range : ranges.subList(1, ranges.size())) {
+            if (range.first <= current.last + 1) {
+                current = new Range(current.first, Math.max(current.last, range.last));
+            } else {
+                coalesced.add(current);
+                current = range;
+            }
+        }
+        coalesced.add(current);
+        return coalesced;
+    }
+
+    /**
+     * Send a 416 response, no range being satisfiable.
+     */
+    public static void writeNotSatisfiable(HttpServletResponse response, long length) {
+        response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        response.setHeader("Content-Range", "bytes */" + length);
+        response.setContentLength(0);
+    }
+
+    /**
+     * Send a 206 response with the ranges of the content, in a multipart/byteranges body if there are many.
+     * @param ranges satisfiable ranges, at least one.
+     * @return number of bytes of the content sent.
+     */
+    public static long write(HttpServletResponse response, byte[] content, String contentType, List<Range> ranges) throws IOException {
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        long sent = 0;
+        if (ranges.size() == 1) {
+            Range range = ranges.get(0);
+            response.setContentType(contentType);
+            response.setHeader("Content-Range", range.getContentRange(content.length));
+            response.setContentLength((int) range.getLength());
+            response.getOutputStream().write(content, (int) range.getFirst(), (int) range.getLength());
+            return range.getLength();
+        }
+
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (Range range : ranges) {
+            String headers = "\r\n--" + boundary + "\r\n"
+                    + "Content-Type: " + contentType + "\r\n"
+                    + "Content-Range: " + range.getContentRange(content.length) + "\r\n\r\n";
+            body.write(headers.getBytes(StandardCharsets.ISO_8859_1));
+            body.write(content, (int) range.getFirst(), (int) range.getLength());
+            sent += range.getLength();
+        }
+        body.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLength(body.size());
+        body.writeTo(response.getOutputStream());
+        return sent;
+    }
+}
@@ -16,17 +16,19 @@
  */
 package fr.ybonnel.breizhcamppdf;
 
-import com.google.common.base.Function;
-import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
 import fr.ybonnel.breizhcamppdf.model.*;
 
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URL;
-import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.time.FastDateFormat;
 
@@ -50,99 +52,317 @@ public class DataService {
 	    public int venue_id;
 	}
 
-    private Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss").create();
-
-    private Programme programme;
-
-    private Programme getProgramme() {
-        if (programme == null) {
-            try {
-                //URL url = new URL("file:///D:/sources/Breizhcamp-cfp/conf/breizhcamp.json");
-                URL url = new URL("http://www.breizhcamp.org/json/2016/schedule.json");
-                URLConnection connection = url.openConnection();
-                TalkItem[] items = gson.fromJson(new InputStreamReader(connection.getInputStream()), TalkItem[].class);
-                
-                FastDateFormat dateFormat = FastDateFormat.getInstance("dd/MM/yyyy");
-                FastDateFormat timeFormat = FastDateFormat.getInstance("HH:mm");
-                
-                Map<String, String> trackToAmphi = new HashMap<>();
-                trackToAmphi.put("Track1", "Amphi A");
-                trackToAmphi.put("Track2", "Amphi B");
-                trackToAmphi.put("Track3", "Amphi C");
-                trackToAmphi.put("Track4", "Amphi D");
-                trackToAmphi.put("Track5 (labs)", "Esp. Lab");
-                trackToAmphi.put("Track6", "Hall");
-                
-                Map<Integer,Jour> jours = new HashMap<>();
-                for (TalkItem item : items) {
-                	Jour jour = jours.get(item.event_start.getDate());
-                	if (jour == null) {
-                		jour = new Jour();
-                		jour.date = dateFormat.format(item.event_start);
-                		jour.title = jour.date;
-                		jours.put(item.event_start.getDate(), jour);
-                	}
-                	
-                	Talk talk = new Talk();
-                	talk.id = String.valueOf(item.id);
-                	talk.title = item.name;
-                	talk.track = item.venue;
-                	talk.format = item.format;
-                	talk.room = trackToAmphi.get(talk.track);
-                	talk.start = timeFormat.format(item.event_start);
-                	talk.end = timeFormat.format(item.event_end);
-                	
-                	jour.getProposals().add(talk);
-                }
-                
-                programme = new Programme();
-                programme.getJours().addAll(jours.values());
+    private static final Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss").create();
+
+    /**
+     * Download and parse schedule.json and talks.json.
+     * @return a new snapshot of the programme.
+     */
+    public static DataService load() {
+        return reload(null);
+    }
 
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+    /**
+     * Download schedule.json and talks.json if they changed since the previous snapshot was loaded,
+     * see {@link Feed}. A feed which did not change is not parsed again.
+     * @param previous snapshot loaded before, null if none.
+     * @return the previous snapshot if none of the feeds was downloaded again, else a new snapshot,
+     * which shares the data of the previous one if the contents downloaded are the same.
+     */
+    public static DataService reload(DataService previous) {
+        try {
+            //URL url = new URL("file:///D:/sources/Breizhcamp-cfp/conf/breizhcamp.json");
+            // The "schedule.url" property is there for the fixtures of the benchmarks.
+            URL scheduleUrl = new URL(System.getProperty("schedule.url", "http://www.breizhcamp.org/json/2016/schedule.json"));
+            URL talksUrl = TalkService.INSTANCE.getUrl();
+            try (Feed.Content schedule = Feed.fetch("schedule", scheduleUrl, previous == null ? null : previous.scheduleVersion);
+                 Feed.Content talks = Feed.fetch("talks", talksUrl, previous == null ? null : previous.talksVersion)) {
+                if (schedule == null && talks == null) {
+                    return previous;
+                }
+                Feed.Version scheduleVersion = schedule == null ? previous.scheduleVersion : schedule.getVersion();
+                Feed.Version talksVersion = talks == null ? previous.talksVersion : talks.getVersion();
+                boolean scheduleChanged = schedule != null && schedule.isChanged();
+                boolean talksChanged = talks != null && talks.isChanged();
+                if (!scheduleChanged && !talksChanged) {
+                    // Same contents, only the validators of the next conditional requests are new.
+                    return new DataService(previous, scheduleVersion, talksVersion);
+                }
+                return new DataService(
+                        scheduleChanged ? loadProgramme(schedule) : previous.programme,
+                        talksChanged ? TalkService.INSTANCE.loadTalkDetails(talksUrl, talks) : previous.talkDetails,
+                        scheduleVersion, talksVersion);
             }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
-        return programme;
     }
 
+    private static Programme loadProgramme(Feed.Content content) {
+        try {
+            long parseStart = System.nanoTime();
 
+            FastDateFormat dateFormat = FastDateFormat.getInstance("dd/MM/yyyy");
+            FastDateFormat timeFormat = FastDateFormat.getInstance("HH:mm");
+            
+            Map<String, String> trackToAmphi = new HashMap<>();
+            trackToAmphi.put("Track1", "Amphi A");
+            trackToAmphi.put("Track2", "Amphi B");
+            trackToAmphi.put("Track3", "Amphi C");
+            trackToAmphi.put("Track4", "Amphi D");
+            trackToAmphi.put("Track5 (labs)", "Esp. Lab");
+            trackToAmphi.put("Track6", "Hall");
+            
+            Map<Integer,Jour> jours = new HashMap<>();
+            // Talks are added as they are read, the feed is never held in memory.
+            try (JsonReader reader = new JsonReader(new InputStreamReader(content.open(), StandardCharsets.UTF_8))) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    TalkItem item = gson.fromJson(reader, TalkItem.class);
+                    Jour jour = jours.get(item.event_start.getDate());
+                    if (jour == null) {
+                        jour = new Jour();
+                        jour.date = dateFormat.format(item.event_start);
+                        jour.title = jour.date;
+                        jours.put(item.event_start.getDate(), jour);
+                    }
 
-    public List<String> getDates() {
-        return Lists.transform(getProgramme().getJours(), new Function<Jour, String>() {
-            @Override
-            public String apply(Jour input) {
-                return input.getDate();
+                    Talk talk = new Talk();
+                    talk.id = String.valueOf(item.id);
+                    talk.title = item.name;
+                    talk.track = item.venue;
+                    talk.format = item.format;
+                    talk.formatKey = FormatIcons.INSTANCE.getKey(item.format);
+                    talk.room = trackToAmphi.get(talk.track);
+                    talk.start = timeFormat.format(item.event_start);
+                    talk.end = timeFormat.format(item.event_end);
+
+                    jour.getProposals().add(talk);
+                }
+                reader.endArray();
             }
-        });
+            Metrics.INSTANCE.observe(Metrics.Phase.JSON_PARSE, System.nanoTime() - parseStart);
+
+            Programme programme = new Programme();
+            programme.getJours().addAll(jours.values());
+            return programme;
+
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
+    private final List<String> dates;
+    private final List<Talk> talks;
+    private final Map<String, List<Talk>> talksByDate;
+    private final Programme programme;
+    private final Map<String, TalkDetail> talkDetails;
+    private final Map<String, Talk> talksById;
+    private final Map<String, List<String>> roomsByDate;
+    private final Map<String, List<String>> creneaux;
+    private final Map<String, DayGrid> grids;
+    private final String fingerprint;
+    private final Feed.Version scheduleVersion;
+    private final Feed.Version talksVersion;
 
-    private List<Talk> talks = null;
+    private static final AtomicLong GENERATIONS = new AtomicLong();
 
-    public List<Talk> getTalks() {
-        if (talks == null) {
-            talks = new ArrayList<>();
-            for (Jour jour : getProgramme().getJours()) {
-                talks.addAll(jour.getProposals());
+    /**
+     * Order of the snapshots built by this process, the greatest is the most recent.
+     */
+    private final long generation = GENERATIONS.incrementAndGet();
+
+    /**
+     * Build all the indexes of a programme, which is never modified afterwards.
+     * @param programme days and talks.
+     * @param talkDetails details of the talks by id.
+     */
+    public DataService(Programme programme, Map<String, TalkDetail> talkDetails) {
+        this(programme, talkDetails, null, null);
+    }
+
+    /**
+     * @param scheduleVersion version of schedule.json the programme was parsed from, null if unknown.
+     * @param talksVersion version of talks.json the details were parsed from, null if unknown.
+     */
+    DataService(Programme programme, Map<String, TalkDetail> talkDetails,
+                        Feed.Version scheduleVersion, Feed.Version talksVersion) {
+        this.programme = programme;
+        this.scheduleVersion = scheduleVersion;
+        this.talksVersion = talksVersion;
+        List<String> datesInList = new ArrayList<>();
+        List<Talk> allTalks = new ArrayList<>();
+        Map<String, List<Talk>> talksInMap = new HashMap<>();
+        for (Jour jour : programme.getJours()) {
+            datesInList.add(jour.getDate());
+            allTalks.addAll(jour.getProposals());
+            talksInMap.put(jour.getDate(), Collections.unmodifiableList(new ArrayList<>(jour.getProposals())));
+        }
+        dates = Collections.unmodifiableList(datesInList);
+        talks = Collections.unmodifiableList(allTalks);
+        talksByDate = Collections.unmodifiableMap(talksInMap);
+
+        // The details may be shared with the previous snapshot, so the join is kept here rather than in them.
+        Map<String, Talk> talksInIdMap = new HashMap<>();
+        for (Talk talk : talks) {
+            talksInIdMap.put(talk.getId(), talk);
+        }
+        talksById = Collections.unmodifiableMap(talksInIdMap);
+        this.talkDetails = Collections.unmodifiableMap(new HashMap<>(talkDetails));
+
+        Map<String, List<String>> roomsInMap = new HashMap<>();
+        Map<String, List<String>> creneauxInMap = new HashMap<>();
+        Map<String, DayGrid> gridsInMap = new HashMap<>();
+        for (Map.Entry<String, List<Talk>> entry : talksByDate.entrySet()) {
+            Set<String> roomsInSet = new HashSet<>();
+            Set<String> creneauxForDate = new HashSet<>();
+            for (Talk talk : entry.getValue()) {
+                if (talk.getRoom() == null) {
+                    System.err.println("Talk without room : " + talk.getTitle());
+                }
+                roomsInSet.add(talk.getRoom());
+                creneauxForDate.add(talk.getStart());
             }
+            List<String> rooms = new ArrayList<>(roomsInSet);
+            Collections.sort(rooms);
+            roomsInMap.put(entry.getKey(), Collections.unmodifiableList(rooms));
+
+            List<String> creneauxInList = new ArrayList<>(creneauxForDate);
+            Collections.sort(creneauxInList);
+            creneauxInMap.put(entry.getKey(), Collections.unmodifiableList(creneauxInList));
+
+            gridsInMap.put(entry.getKey(), new DayGrid(entry.getKey(), creneauxInList, rooms, entry.getValue()));
         }
+        roomsByDate = Collections.unmodifiableMap(roomsInMap);
+        creneaux = Collections.unmodifiableMap(creneauxInMap);
+        grids = Collections.unmodifiableMap(gridsInMap);
+
+        fingerprint = computeFingerprint();
+    }
+
+    /**
+     * Same data and indexes as another snapshot, with other versions of the feeds.
+     */
+    private DataService(DataService data, Feed.Version scheduleVersion, Feed.Version talksVersion) {
+        this.programme = data.programme;
+        this.talkDetails = data.talkDetails;
+        this.talksById = data.talksById;
+        this.dates = data.dates;
+        this.talks = data.talks;
+        this.talksByDate = data.talksByDate;
+        this.roomsByDate = data.roomsByDate;
+        this.creneaux = data.creneaux;
+        this.grids = data.grids;
+        this.fingerprint = data.fingerprint;
+        this.scheduleVersion = scheduleVersion;
+        this.talksVersion = talksVersion;
+    }
+
+    /**
+     * @return order of this snapshot among the ones built by this process.
+     */
+    long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return days and talks the snapshot was built from, see {@link ProgrammeSnapshot}.
+     */
+    Programme getProgramme() {
+        return programme;
+    }
+
+    /**
+     * @return details of the talks by id.
+     */
+    Map<String, TalkDetail> getTalkDetails() {
+        return talkDetails;
+    }
+
+    /**
+     * @return version of schedule.json the programme was parsed from, null if unknown.
+     */
+    Feed.Version getScheduleVersion() {
+        return scheduleVersion;
+    }
+
+    /**
+     * @return version of talks.json the details were parsed from, null if unknown.
+     */
+    Feed.Version getTalksVersion() {
+        return talksVersion;
+    }
+
+    public List<String> getDates() {
+        return dates;
+    }
+
+    public List<Talk> getTalks() {
         return talks;
     }
 
-    private Map<String, List<Talk>> talksByDate;
+    /**
+     * Fingerprint of the programme, changes as soon as a talk is moved, renamed or added,
+     * or as soon as a description or a speaker changes.
+     * @return sha1 of the fields used by renderers.
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
 
-    public Map<String, List<Talk>> getTalksByDate() {
-        if (talksByDate == null) {
-            talksByDate = new HashMap<>();
-            for (Jour jour : getProgramme().getJours()) {
-                talksByDate.put(jour.getDate(), new ArrayList<Talk>());
-                talksByDate.get(jour.getDate()).addAll(jour.getProposals());
+    private String computeFingerprint() {
+        Hasher hasher = Hashing.sha1().newHasher();
+        for (Talk talk : talks) {
+            hasher.putString(String.valueOf(talk.getId())).putChar('\u0000')
+                    .putString(String.valueOf(talk.getTitle())).putChar('\u0000')
+                    .putString(String.valueOf(talk.getTrack())).putChar('\u0000')
+                    .putString(String.valueOf(talk.getFormat())).putChar('\u0000')
+                    .putString(String.valueOf(talk.getRoom())).putChar('\u0000')
+                    .putString(talk.getStart()).putChar('\u0000')
+                    .putString(talk.getEnd()).putChar('\u0000');
+        }
+        for (TalkDetail detail : new TreeMap<>(talkDetails).values()) {
+            hasher.putString(String.valueOf(detail.getId())).putChar('\u0000')
+                    .putString(String.valueOf(detail.getTitle())).putChar('\u0000')
+                    .putString(String.valueOf(detail.getDescription())).putChar('\u0000');
+            for (Speaker speaker : detail.getSpeakers()) {
+                hasher.putString(String.valueOf(speaker.getFullname())).putChar('\u0000')
+                        .putString(String.valueOf(speaker.getAvatar())).putChar('\u0000');
             }
         }
+        return hasher.hash().toString();
+    }
+
+    public Map<String, List<Talk>> getTalksByDate() {
         return talksByDate;
     }
 
-    private Map<String,List<String>> roomsByDate = new HashMap<>();
+    public TalkDetail getTalkDetail(Talk talk) {
+        return talkDetails.get(talk.getId());
+    }
+
+    /**
+     * @param detail details of a talk.
+     * @return the talk in the schedule, null if it isn't scheduled.
+     */
+    public Talk getTalk(TalkDetail detail) {
+        return talksById.get(detail.getId());
+    }
+
+    /**
+     * @return urls of the avatars of all speakers.
+     */
+    public Set<String> getAvatarUrls() {
+        Set<String> urls = new HashSet<>();
+        for (TalkDetail detail : talkDetails.values()) {
+            for (Speaker speaker : detail.getSpeakers()) {
+                if (speaker.getAvatar() != null) {
+                    urls.add(speaker.getAvatar());
+                }
+            }
+        }
+        return urls;
+    }
 
     public List<String> getRooms(String date) {
         return getRooms(date, true);
@@ -150,19 +370,6 @@ public class DataService {
 
     public List<String> getRooms(String date, boolean skipHall) {
         List<String> rooms = roomsByDate.get(date);
-        if (rooms == null) {
-            Set<String> roomsInSet = new HashSet<>();
-            for (Talk talk : getTalksByDate().get(date)) {
-                if (talk.getRoom() == null) {
-                    System.err.println("Talk without room : " + talk.getTitle());
-                }
-                roomsInSet.add(talk.getRoom());
-            }
-            rooms = new ArrayList<>(roomsInSet);
-
-            Collections.sort(rooms);
-            roomsByDate.put(date, rooms);
-        }
 
         if (skipHall) {
             rooms = new ArrayList<>(rooms);
@@ -172,35 +379,75 @@ public class DataService {
         return rooms;
     }
 
-    private Map<String, List<String>> creneaux;
-
     public Map<String, List<String>> getCreneaux() {
-        if (creneaux == null) {
-            creneaux = new HashMap<>();
-            for (Map.Entry<String, List<Talk>> entry : getTalksByDate().entrySet()) {
-                Set<String> creneauxForDate = new HashSet<>();
-                for (Talk talk : entry.getValue()) {
-                    creneauxForDate.add(talk.getStart());
-                }
-                List<String> creneauxInList = new ArrayList<>(creneauxForDate);
-                Collections.sort(creneauxInList);
-                creneaux.put(entry.getKey(), creneauxInList);
-            }
-        }
         return creneaux;
     }
 
-    public Talk getTalkByDateAndCreneauxAndRoom(String date, String creneau, String room) {
-        Talk talkSelected = null;
-        for (Talk talk : getTalksByDate().get(date)) {
-            if (creneau.equals(talk.getStart()) && room.equals(talk.getRoom())) {
+    /**
+     * Talks of a day, indexed by creneau and room ordinals.
+     */
+    private static class DayGrid {
+        private final Map<String, Integer> creneauIndexes = new HashMap<>();
+        private final Map<String, Integer> roomIndexes = new HashMap<>();
+        private final Talk[][] talks;
+        private final String[] endTimes;
+
+        private DayGrid(String date, List<String> creneaux, List<String> rooms, List<Talk> talksOfDay) {
+            for (int i = 0; i < creneaux.size(); i++) {
+                creneauIndexes.put(creneaux.get(i), i);
+            }
+            for (int i = 0; i < rooms.size(); i++) {
+                roomIndexes.put(rooms.get(i), i);
+            }
+            talks = new Talk[creneaux.size()][rooms.size()];
+            endTimes = new String[creneaux.size()];
+            Arrays.fill(endTimes, "99:99");
+            for (Talk talk : talksOfDay) {
+                Integer room = roomIndexes.get(talk.getRoom());
+                if (room == null) {
+                    continue;
+                }
+                int creneau = creneauIndexes.get(talk.getStart());
+                Talk talkSelected = talks[creneau][room];
                 if (talkSelected != null) {
-                    System.out.println("Two talk for " + date + " " + creneau + " " + room + " : " + talkSelected.title + " & " + talk.title);
-                    //throw new RuntimeException("Two talk for " + date + " " + creneau + " " + room);
+                    System.out.println("Two talk for " + date + " " + talk.getStart() + " " + talk.getRoom() + " : " + talkSelected.title + " & " + talk.title);
                 }
-                talkSelected = talk;
+                talks[creneau][room] = talk;
             }
+            // Only the talks kept in the grid count, not the duplicates they replaced.
+            for (int creneau = 0; creneau < talks.length; creneau++) {
+                for (Talk talk : talks[creneau]) {
+                    if (talk != null && talk.getEnd().compareTo(endTimes[creneau]) < 0) {
+                        endTimes[creneau] = talk.getEnd();
+                    }
+                }
+            }
+        }
+
+        private Talk getTalk(String creneau, String room) {
+            Integer creneauIndex = creneauIndexes.get(creneau);
+            Integer roomIndex = roomIndexes.get(room);
+            if (creneauIndex == null || roomIndex == null) {
+                return null;
+            }
+            return talks[creneauIndex][roomIndex];
+        }
+
+        private String getEndTime(String creneau) {
+            Integer creneauIndex = creneauIndexes.get(creneau);
+            return creneauIndex == null ? "99:99" : endTimes[creneauIndex];
         }
-        return talkSelected;
+    }
+
+    public Talk getTalkByDateAndCreneauxAndRoom(String date, String creneau, String room) {
+        return grids.get(date).getTalk(creneau, room);
+    }
+
+    /**
+     * End of a creneau : the earliest end of the talks starting in this creneau, all rooms included.
+     * @return end time, "99:99" if no talk starts in this creneau.
+     */
+    public String getEndTime(String date, String creneau) {
+        return grids.get(date).getEndTime(creneau);
     }
 }
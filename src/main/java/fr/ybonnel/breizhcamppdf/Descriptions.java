@@ -0,0 +1,97 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.itextpdf.text.Element;
+import com.itextpdf.text.html.simpleparser.HTMLWorker;
+import com.petebevin.markdown.MarkdownProcessor;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Descriptions of the talks, converted from Markdown to iText elements.
+ * <p>
+ * The Markdown conversion is most of the cost, so its HTML is cached by hash of the description.
+ * iText elements are changed by the layout, so they are parsed again from the HTML for each use.
+ */
+public enum Descriptions {
+    INSTANCE;
+
+    private final Cache<String, String> htmls = CacheBuilder.newBuilder()
+            .maximumSize(Long.getLong("render.descriptions.max", 2000)).recordStats().build();
+
+    // MarkdownProcessor is not thread safe.
+    private final ThreadLocal<MarkdownProcessor> markdownProcessor = new ThreadLocal<MarkdownProcessor>() {
+        @Override
+        protected MarkdownProcessor initialValue() {
+            return new MarkdownProcessor();
+        }
+    };
+
+    /**
+     * @param description description of a talk, in Markdown, null for none.
+     * @return new elements for the description.
+     */
+    public List<Element> getElements(String description) throws IOException {
+        final String markdown = Strings.nullToEmpty(description);
+        String key = Hashing.sha1().hashString(markdown, StandardCharsets.UTF_8).toString();
+        String html;
+        try {
+            html = htmls.get(key, new Callable<String>() {
+                @Override
+                public String call() {
+                    return markdownProcessor.get().markdown(markdown);
+                }
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+        return HTMLWorker.parseToList(new StringReader(html), null);
+    }
+
+    /**
+     * @return number of descriptions found in cache.
+     */
+    public long getHitCount() {
+        return htmls.stats().hitCount();
+    }
+
+    /**
+     * @return number of descriptions not found in cache.
+     */
+    public long getMissCount() {
+        return htmls.stats().missCount();
+    }
+
+    /**
+     * Empty the cache, for the benchmarks of a rendering from scratch.
+     */
+    public void invalidateAll() {
+        htmls.invalidateAll();
+    }
+}
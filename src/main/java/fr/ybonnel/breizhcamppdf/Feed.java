@@ -0,0 +1,182 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A JSON feed of breizhcamp.org (schedule.json, talks.json), revalidated before being parsed again.
+ * <p>
+ * The ETag and Last-Modified of the loaded content are sent in a conditional request,
+ * and a content which is downloaded again is compared by sha1 with the loaded one :
+ * in both cases the feed is not parsed again, and the programme is kept.
+ * A content downloaded again keeps its new ETag and Last-Modified, for the next conditional request.
+ * The content is spooled in a temporary file, so that the feed is still never held in memory.
+ */
+public final class Feed {
+
+    /**
+     * Version of a loaded content.
+     */
+    public static class Version {
+        private final String etag;
+        private final String lastModified;
+        private final String sha1;
+
+        /**
+         * @param etag ETag of the content, null if none.
+         * @param lastModified Last-Modified of the content, null if none.
+         * @param sha1 sha1 of the content.
+         */
+        Version(String etag, String lastModified, String sha1) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.sha1 = sha1;
+        }
+
+        String getEtag() {
+            return etag;
+        }
+
+        String getLastModified() {
+            return lastModified;
+        }
+
+        public String getSha1() {
+            return sha1;
+        }
+    }
+
+    /**
+     * A downloaded content, deleted when closed.
+     */
+    public static class Content implements Closeable {
+        private final File file;
+        private final Version version;
+
+        private Content(File file, Version version) {
+            this.file = file;
+            this.version = version;
+        }
+
+        public Version getVersion() {
+            return version;
+        }
+
+        /**
+         * @return false if the content is the loaded one, it is then not kept and only its version is new.
+         */
+        public boolean isChanged() {
+            return file != null;
+        }
+
+        /**
+         * @return the content, only if it changed.
+         */
+        public InputStream open() throws IOException {
+            if (file == null) {
+                throw new IllegalStateException("Content not changed, already loaded");
+            }
+            return new BufferedInputStream(new FileInputStream(file));
+        }
+
+        @Override
+        public void close() {
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
+    private Feed() {
+    }
+
+    /**
+     * @param name name of the feed, for the metrics.
+     * @param url url of the feed.
+     * @param loaded version of the content already loaded, null if none.
+     * @return the downloaded content, not {@link Content#isChanged() changed} if it is the loaded one,
+     * null if it was not downloaded again (not modified).
+     */
+    public static Content fetch(String name, URL url, Version loaded) throws IOException {
+        long start = System.nanoTime();
+        String etag = null;
+        String lastModified = null;
+        InputStream input;
+        if ("http".equals(url.getProtocol()) || "https".equals(url.getProtocol())) {
+            Map<String, String> headers = new HashMap<>();
+            if (loaded != null && loaded.etag != null) {
+                headers.put("If-None-Match", loaded.etag);
+            }
+            if (loaded != null && loaded.lastModified != null) {
+                headers.put("If-Modified-Since", loaded.lastModified);
+            }
+            HttpURLConnection connection = UpstreamClient.INSTANCE.connect(url, headers);
+            if (loaded != null && connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                UpstreamClient.INSTANCE.discard(connection);
+                Metrics.INSTANCE.observe(Metrics.Phase.DATA_FETCH, System.nanoTime() - start);
+                Metrics.INSTANCE.feedFetch(name, "not_modified");
+                return null;
+            }
+            input = UpstreamClient.INSTANCE.getBody(connection);
+            etag = connection.getHeaderField("ETag");
+            lastModified = connection.getHeaderField("Last-Modified");
+        } else {
+            input = UpstreamClient.INSTANCE.openStream(url);
+        }
+
+        File file = File.createTempFile("feed", ".json");
+        Hasher hasher = Hashing.sha1().newHasher();
+        try {
+            try (InputStream body = input; OutputStream output = new FileOutputStream(file)) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = body.read(buffer)) != -1) {
+                    hasher.putBytes(buffer, 0, read);
+                    output.write(buffer, 0, read);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            throw e;
+        }
+        Metrics.INSTANCE.observe(Metrics.Phase.DATA_FETCH, System.nanoTime() - start);
+
+        String sha1 = hasher.hash().toString();
+        if (loaded != null && sha1.equals(loaded.sha1)) {
+            file.delete();
+            Metrics.INSTANCE.feedFetch(name, "unchanged");
+            return new Content(null, new Version(etag, lastModified, sha1));
+        }
+        Metrics.INSTANCE.feedFetch(name, "changed");
+        return new Content(file, new Version(etag, lastModified, sha1));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.itextpdf.text.BadElementException;
+import com.itextpdf.text.Image;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Icons of the talk formats, loaded once from the resources "/formats".
+ * <p>
+ * Icons are given as copies of a single image, so each one is written once in a PDF whatever the number of cells using it.
+ */
+public enum FormatIcons {
+    INSTANCE;
+
+    private static final String DIRECTORY = "/formats/";
+
+    private static final String EXTENSION = ".png";
+
+    /**
+     * Format of the talks without icon.
+     */
+    private static final String DEFAULT_KEY = "autres";
+
+    private static final CharMatcher IGNORED = CharMatcher.anyOf(" -'");
+
+    private final ImmutableMap<String, Image> icons;
+
+    /**
+     * Formats without icon already logged, the talks are loaded again at each refresh.
+     */
+    private final Set<String> unknownFormats = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    FormatIcons() {
+        icons = loadIcons();
+        if (!icons.containsKey(DEFAULT_KEY)) {
+            throw new IllegalStateException("Missing default icon " + DIRECTORY + DEFAULT_KEY + EXTENSION);
+        }
+    }
+
+    /**
+     * Load the icons listed here, a new format needs its icon in {@link #DIRECTORY} and its key in this list.
+     */
+    private static ImmutableMap<String, Image> loadIcons() {
+        // Not a constant of the enum, those are not initialized yet when INSTANCE is built.
+        ImmutableList<String> keys = ImmutableList.of(DEFAULT_KEY, "break", "conférence",
+                "hackaton", "handsonlabs", "keynote", "lab", "quickie", "toolsinaction", "universite");
+        ImmutableMap.Builder<String, Image> icons = ImmutableMap.builder();
+        for (String key : keys) {
+            URL url = FormatIcons.class.getResource(DIRECTORY + key + EXTENSION);
+            if (url == null) {
+                System.err.println("No icon " + DIRECTORY + key + EXTENSION);
+            } else {
+                addIcon(icons, key, url);
+            }
+        }
+        return icons.build();
+    }
+
+    /**
+     * An icon which can't be read is skipped, its format gets the default icon.
+     */
+    private static void addIcon(ImmutableMap.Builder<String, Image> icons, String key, URL url) {
+        try {
+            icons.put(key, Image.getInstance(url));
+        } catch (IOException | BadElementException e) {
+            System.err.println("Can't load icon " + url + " : " + e);
+        }
+    }
+
+    /**
+     * Normalize a format, to be done once when the talks are loaded.
+     * @param format format of a talk.
+     * @return key of the icon of the format, see {@link #getIcon(String)}.
+     */
+    public String getKey(String format) {
+        String key = format == null ? DEFAULT_KEY : IGNORED.removeFrom(format).toLowerCase();
+        if (!icons.containsKey(key)) {
+            if (unknownFormats.add(key)) {
+                System.err.println("No icon for format " + format);
+            }
+            return DEFAULT_KEY;
+        }
+        return key;
+    }
+
+    /**
+     * @return number of icons loaded.
+     */
+    public int getCount() {
+        return icons.size();
+    }
+
+    /**
+     * @param key key of a format, see {@link #getKey(String)}.
+     * @return a copy of the icon of the format.
+     */
+    public Image getIcon(String key) {
+        return Image.getInstance(icons.get(key));
+    }
+}
@@ -22,16 +22,13 @@ import com.itextpdf.text.*;
 import com.itextpdf.text.Font;
 import com.itextpdf.text.Image;
 import com.itextpdf.text.Rectangle;
-import com.itextpdf.text.html.simpleparser.HTMLWorker;
 import com.itextpdf.text.pdf.*;
-import com.petebevin.markdown.MarkdownProcessor;
 import fr.ybonnel.breizhcamppdf.model.Speaker;
 import fr.ybonnel.breizhcamppdf.model.Talk;
 import fr.ybonnel.breizhcamppdf.model.TalkDetail;
 
 import java.awt.*;
 import java.io.IOException;
-import java.io.StringReader;
 import java.util.*;
 import java.util.List;
 
@@ -56,21 +53,76 @@ public class FullProgRenderer {
 
     private Document document;
     private PdfWriter pdfWriter;
-    private DataService service = new DataService();
+    private DataService service;
+
+    /**
+     * Link the grid to the talks with named actions, for the grid rendered apart from the talks.
+     */
+    private boolean namedLinks;
 
     public FullProgRenderer(Document document, PdfWriter pdfWriter) {
+        this(document, pdfWriter, ProgrammeStore.INSTANCE.get());
+    }
+
+    public FullProgRenderer(Document document, PdfWriter pdfWriter, DataService service) {
         this.document = document;
         this.pdfWriter = pdfWriter;
+        this.service = service;
+    }
+
+    /**
+     * Parts of the programme, to render with {@link PdfParts} : the first page, the grid of each day and the talks.
+     */
+    public static List<PdfParts.Part> getParts(final DataService service) {
+        List<PdfParts.Part> parts = new ArrayList<>();
+        parts.add(new PdfParts.Part() {
+            @Override
+            public void render(Document document, PdfWriter writer) throws DocumentException, IOException {
+                FullProgRenderer renderer = new FullProgRenderer(document, writer, service);
+                renderer.addFooter(2);
+                renderer.createFirstPage();
+            }
+        });
+        for (final String date : service.getDates()) {
+            parts.add(new PdfParts.Part() {
+                @Override
+                public void render(Document document, PdfWriter writer) throws DocumentException, IOException {
+                    FullProgRenderer renderer = new FullProgRenderer(document, writer, service);
+                    renderer.namedLinks = true;
+                    renderer.addFooter(1);
+                    document.setPageSize(PageSize.A4.rotate());
+                    renderer.createProgrammePage(date);
+                }
+            });
+        }
+        parts.add(new PdfParts.Part() {
+            @Override
+            public void render(Document document, PdfWriter writer) throws DocumentException, IOException {
+                FullProgRenderer renderer = new FullProgRenderer(document, writer, service);
+                renderer.addFooter(1);
+                AvatarService.INSTANCE.prefetch(service.getAvatarUrls());
+                renderer.createTalksPages(renderer.getTalksToExplain());
+            }
+        });
+        return parts;
     }
 
     public void render() throws DocumentException, IOException {
+        addFooter(2);
+
+        AvatarService.INSTANCE.prefetch(service.getAvatarUrls());
 
-        // Footer
+        createFirstPage();
+        createProgrammePages();
+        createTalksPages(getTalksToExplain());
+    }
+
+    private void addFooter(final int firstPage) {
         pdfWriter.setPageEvent(new PdfPageEventHelper() {
             @Override
             public void onEndPage(PdfWriter writer, Document document) {
 
-                if (writer.getPageNumber() > 1) {
+                if (writer.getPageNumber() >= firstPage) {
                     Rectangle rect = document.getPageSize();
                     ColumnText.showTextAligned(
                             writer.getDirectContent(),
@@ -80,10 +132,6 @@ public class FullProgRenderer {
                 }
             }
         });
-
-        createFirstPage();
-        List<Talk> talksToExplain = createProgrammePages();
-        createTalksPages(talksToExplain);
     }
 
 
@@ -107,23 +155,25 @@ public class FullProgRenderer {
         title.setAlignment(Element.ALIGN_CENTER);
         document.add(title);
 
+        // The "assets.url" property is there for the fixtures of the benchmarks.
+        String assets = System.getProperty("assets.url", "http://www.breizhcamp.org/img/");
         PdfPTable sponsors = new PdfPTable(4);
         sponsors.setWidthPercentage(90f);
-        addSponsor(sponsors, "http://www.breizhcamp.org/img/logo_zenika.png", 2);
-        addSponsor(sponsors, "http://www.breizhcamp.org/img/logo_ovh.png", 2);
-        addSponsor(sponsors, "http://www.breizhcamp.org/img/logo_google.png", 1);
-        addSponsor(sponsors, "http://www.breizhcamp.org/img/logo_jfrog.png", 1);
-        addSponsor(sponsors, "http://www.breizhcamp.org/img/logo_sii.png", 1);
-        addSponsor(sponsors, "http://www.breizhcamp.org/img/logo_jouve.png", 1);
-        addSponsor(sponsors, "http://www.breizhcamp.org/img/logo_sqli.png", 1);
-        addSponsor(sponsors, "http://www.breizhcamp.org/img/logo_cloudbees.png", 1);
-        addSponsor(sponsors, "http://www.breizhcamp.org/img/logo_github.png", 1);
-        addSponsor(sponsors, "http://www.breizhcamp.org/img/logo_sonarsource.png", 1);
-        addSponsor(sponsors, "http://www.breizhcamp.org/img/logo_ippon.png", 1);
-        addSponsor(sponsors, "http://www.breizhcamp.org/img/logo_netapsys.jpg", 1);
+        addSponsor(sponsors, assets + "logo_zenika.png", 2);
+        addSponsor(sponsors, assets + "logo_ovh.png", 2);
+        addSponsor(sponsors, assets + "logo_google.png", 1);
+        addSponsor(sponsors, assets + "logo_jfrog.png", 1);
+        addSponsor(sponsors, assets + "logo_sii.png", 1);
+        addSponsor(sponsors, assets + "logo_jouve.png", 1);
+        addSponsor(sponsors, assets + "logo_sqli.png", 1);
+        addSponsor(sponsors, assets + "logo_cloudbees.png", 1);
+        addSponsor(sponsors, assets + "logo_github.png", 1);
+        addSponsor(sponsors, assets + "logo_sonarsource.png", 1);
+        addSponsor(sponsors, assets + "logo_ippon.png", 1);
+        addSponsor(sponsors, assets + "logo_netapsys.jpg", 1);
         document.add(sponsors);
 
-        Image istic = Image.getInstance("http://www.breizhcamp.org/img/logo_istic.png");
+        Image istic = Image.getInstance(AssetCache.INSTANCE.get(assets + "logo_istic.png"));
         istic.scaleToFit(150, 150);
         istic.setAlignment(Element.ALIGN_CENTER);
         document.add(istic);
@@ -133,7 +183,7 @@ public class FullProgRenderer {
 
     private void addSponsor(PdfPTable sponsors, String imageUrl, int colspan) throws DocumentException, IOException {
         PdfPCell sponsor = new PdfPCell();
-        sponsor.setImage(Image.getInstance(imageUrl));
+        sponsor.setImage(Image.getInstance(AssetCache.INSTANCE.get(imageUrl)));
         sponsor.setColspan(colspan);
         sponsor.setBorder(Rectangle.NO_BORDER);
         sponsor.setVerticalAlignment(Element.ALIGN_MIDDLE);
@@ -165,75 +215,81 @@ public class FullProgRenderer {
         return count;
     }
 
-    private List<Talk> createProgrammePages() throws DocumentException, IOException {
+    /**
+     * @return talks of the grid, in their order in the grid.
+     */
+    private List<Talk> getTalksToExplain() {
         List<Talk> talksToExplain = new ArrayList<>();
-        document.setPageSize(PageSize.A4.rotate());
-        Font font = new Font();
-        font.setStyle(Font.BOLD);
-        font.setSize(14);
-
-
         for (String date : service.getDates()) {
-
-            Set<String> tracksInPage = new HashSet<>();
-
-            Map<String, Talk> precedentTalk = new HashMap<>();
-            PdfPTable table = createBeginningOfPage(font, date);
             for (String creneau : service.getCreneaux().get(date)) {
-                // Nouvelle page à 14h
-                if (creneau.startsWith("14:00") && !tracksInPage.isEmpty()) {
-                    document.add(table);
-
-                    addLegend(tracksInPage);
-                    table = createBeginningOfPage(font, date);
-                }
-
-                PdfPCell cellCreneau = new PdfPCell();
-                cellCreneau.setPaddingBottom(10);
-                Paragraph startTime = new Paragraph(creneau);
-                startTime.setAlignment(Element.ALIGN_CENTER);
-                cellCreneau.addElement(startTime);
-                Paragraph endTime = new Paragraph(getEndTime(date, creneau));
-                endTime.setAlignment(Element.ALIGN_CENTER);
-                cellCreneau.addElement(endTime);
-                table.addCell(cellCreneau);
                 for (String room : service.getRooms(date)) {
-
-                    PdfPCell cell = new PdfPCell();
-                    cell.setPaddingBottom(10);
-                    cell.setHorizontalAlignment(Element.ALIGN_LEFT);
-
                     Talk talk = service.getTalkByDateAndCreneauxAndRoom(date, creneau, room);
                     if (talk != null) {
                         talksToExplain.add(talk);
-                        remplirCellWithTalk(cell, talk);
-                        cell.setRowspan(getRowSpan(date, talk));
-                        precedentTalk.put(room, talk);
-                        tracksInPage.add(talk.getTrack());
-                        table.addCell(cell);
-                    } else {
-                        talk = precedentTalk.get(room);
-                        if (!(talk != null && talk.getEnd().compareTo(creneau) > 0)) {
-                            table.addCell(cell);
-                        }
                     }
                 }
             }
-            document.add(table);
-            addLegend(tracksInPage);
         }
         return talksToExplain;
     }
 
-    protected String getEndTime(String date, String creneau) {
-        String endTime = "99:99";
-        for (String room : service.getRooms(date, false)) {
-            Talk talk = service.getTalkByDateAndCreneauxAndRoom(date, creneau, room);
-            if (talk != null && talk.getEnd().compareTo(endTime) < 0) {
-                endTime = talk.getEnd();
+    private void createProgrammePages() throws DocumentException, IOException {
+        document.setPageSize(PageSize.A4.rotate());
+        for (String date : service.getDates()) {
+            createProgrammePage(date);
+        }
+    }
+
+    private void createProgrammePage(String date) throws DocumentException, IOException {
+        Font font = new Font();
+        font.setStyle(Font.BOLD);
+        font.setSize(14);
+
+        Set<String> tracksInPage = new HashSet<>();
+
+        Map<String, Talk> precedentTalk = new HashMap<>();
+        PdfPTable table = createBeginningOfPage(font, date);
+        for (String creneau : service.getCreneaux().get(date)) {
+            // Nouvelle page à 14h
+            if (creneau.startsWith("14:00") && !tracksInPage.isEmpty()) {
+                document.add(table);
+
+                addLegend(tracksInPage);
+                table = createBeginningOfPage(font, date);
+            }
+
+            PdfPCell cellCreneau = new PdfPCell();
+            cellCreneau.setPaddingBottom(10);
+            Paragraph startTime = new Paragraph(creneau);
+            startTime.setAlignment(Element.ALIGN_CENTER);
+            cellCreneau.addElement(startTime);
+            Paragraph endTime = new Paragraph(service.getEndTime(date, creneau));
+            endTime.setAlignment(Element.ALIGN_CENTER);
+            cellCreneau.addElement(endTime);
+            table.addCell(cellCreneau);
+            for (String room : service.getRooms(date)) {
+
+                PdfPCell cell = new PdfPCell();
+                cell.setPaddingBottom(10);
+                cell.setHorizontalAlignment(Element.ALIGN_LEFT);
+
+                Talk talk = service.getTalkByDateAndCreneauxAndRoom(date, creneau, room);
+                if (talk != null) {
+                    remplirCellWithTalk(cell, talk);
+                    cell.setRowspan(getRowSpan(date, talk));
+                    precedentTalk.put(room, talk);
+                    tracksInPage.add(talk.getTrack());
+                    table.addCell(cell);
+                } else {
+                    talk = precedentTalk.get(room);
+                    if (!(talk != null && talk.getEnd().compareTo(creneau) > 0)) {
+                        table.addCell(cell);
+                    }
+                }
             }
         }
-        return endTime;
+        document.add(table);
+        addLegend(tracksInPage);
     }
 
     private void addLegend(Set<String> tracksInPage) throws DocumentException {
@@ -319,7 +375,7 @@ public class FullProgRenderer {
 
 
     private void remplirCellWithTalk(PdfPCell cell, Talk talk) throws DocumentException, IOException {
-        Image image = AvatarService.INSTANCE.getImage(FullProgRenderer.class.getResource("/formats/" + talk.getFormat().replaceAll(" ", "").replaceAll("-", "").replaceAll("'", "").toLowerCase() + ".png"));
+        Image image = FormatIcons.INSTANCE.getIcon(talk.getFormatKey());
 
 
         float[] widths = {0.15f, 0.85f};
@@ -329,7 +385,11 @@ public class FullProgRenderer {
         table.addCell(image);
         PdfPCell subCell = new PdfPCell();
         Chunk chunk = new Chunk(talk.getTitle(), talkFont);
-        chunk.setLocalGoto("talk" + talk.getId());
+        if (namedLinks) {
+            chunk.setAction(PdfAction.gotoLocalPage("talk" + talk.getId(), false));
+        } else {
+            chunk.setLocalGoto("talk" + talk.getId());
+        }
         Paragraph titleTalk = new Paragraph();
         titleTalk.add(chunk);
         titleTalk.setAlignment(Paragraph.ALIGN_CENTER);
@@ -338,7 +398,7 @@ public class FullProgRenderer {
         track.setAlignment(Paragraph.ALIGN_CENTER);
 
         subCell.addElement(track);
-        TalkDetail detail = TalkService.INSTANCE.getTalkDetail(talk);
+        TalkDetail detail = service.getTalkDetail(talk);
         if (detail != null) {
             for (Speaker speaker : detail.getSpeakers()) {
                 Paragraph speakerText = new Paragraph(speaker.getFullname(), speakerFont);
@@ -356,9 +416,6 @@ public class FullProgRenderer {
     }
 
 
-    private MarkdownProcessor markdownProcessor = new MarkdownProcessor();
-
-
     private void createTalksPages(List<Talk> talksToExplain) throws DocumentException, IOException {
         document.setPageSize(PageSize.A4);
         document.newPage();
@@ -372,7 +429,7 @@ public class FullProgRenderer {
         for (TalkDetail talk : Lists.transform(talksToExplain, new Function<Talk, TalkDetail>() {
             @Override
             public TalkDetail apply(Talk input) {
-                return TalkService.INSTANCE.getTalkDetail(input);
+                return service.getTalkDetail(input);
             }
         })) {
 
@@ -380,6 +437,7 @@ public class FullProgRenderer {
                 continue;
             }
 
+            Talk schedule = service.getTalk(talk);
             Paragraph empty = new Paragraph(" ");
             PdfPTable table = new PdfPTable(1);
             table.setWidthPercentage(100);
@@ -393,17 +451,16 @@ public class FullProgRenderer {
             titleWithFormat.getDefaultCell().setBorder(Rectangle.NO_BORDER);
             titleWithFormat.getDefaultCell().setVerticalAlignment(Element.ALIGN_MIDDLE);
 
-            Image image = AvatarService.INSTANCE.getImage(FullProgRenderer.class.getResource("/formats/" + talk.getTalk().getFormat().replaceAll(" ", "").replaceAll("-", "").replaceAll("'", "").toLowerCase() + ".png"));
-            titleWithFormat.addCell(image);
+            titleWithFormat.addCell(FormatIcons.INSTANCE.getIcon(schedule.getFormatKey()));
             titleWithFormat.addCell(new Paragraph(titleTalk));
 
             table.addCell(titleWithFormat);
 
             table.addCell(empty);
 
-            table.addCell(new Paragraph("Salle " + talk.getTalk().getRoom()
-                    + " de " + talk.getTalk().getStart()
-                    + " à " + talk.getTalk().getEnd(), presentFont));
+            table.addCell(new Paragraph("Salle " + schedule.getRoom()
+                    + " de " + schedule.getStart()
+                    + " à " + schedule.getEnd(), presentFont));
 
             table.addCell(empty);
 
@@ -411,7 +468,7 @@ public class FullProgRenderer {
             cell = new PdfPCell();
             cell.setBorder(0);
             cell.setHorizontalAlignment(Element.ALIGN_JUSTIFIED);
-            for (Element element : HTMLWorker.parseToList(new StringReader(markdownProcessor.markdown(talk.getDescription())), null)) {
+            for (Element element : Descriptions.INSTANCE.getElements(talk.getDescription())) {
                 if (element instanceof Paragraph) {
                     ((Paragraph)element).setAlignment(Element.ALIGN_JUSTIFIED);
                 }
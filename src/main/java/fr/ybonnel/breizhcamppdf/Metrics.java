@@ -0,0 +1,293 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and timings of the server, written in the Prometheus text format by {@link MetricsHandler}.
+ * <p>
+ * Durations of each {@link Phase} are kept as histograms, in seconds.
+ * Hit ratios of the caches are read from the caches themselves when the metrics are written.
+ */
+public enum Metrics {
+    INSTANCE;
+
+    /**
+     * Phases of the production of a PDF.
+     */
+    public enum Phase {
+        /**
+         * Download of schedule.json or talks.json, see {@link Feed}.
+         */
+        DATA_FETCH,
+        /**
+         * Parsing of schedule.json or talks.json, from the file the feed was downloaded in.
+         */
+        JSON_PARSE,
+        /**
+         * Loading of an image (avatar or logo), from the disk cache or the network.
+         */
+        IMAGE_FETCH,
+        /**
+         * Layout of a document (or of a part of a document), iText writes the pages as they are completed.
+         */
+        LAYOUT,
+        /**
+         * Writing of the end of a document, merge of the parts and optimization.
+         */
+        PDF_WRITE;
+
+        private String getLabel() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    private static final String PREFIX = "breizhcamp_pdf_";
+
+    /**
+     * Histogram with cumulative buckets, as expected by Prometheus.
+     */
+    private static class Histogram {
+        /**
+         * Upper bounds of the buckets, in seconds.
+         * Not a constant of Metrics, which would not be initialized yet when INSTANCE is built.
+         */
+        private static final double[] BUCKETS = {0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS.length);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sumNanos = new AtomicLong();
+
+        private void observe(long nanos) {
+            double seconds = nanos / 1e9;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                if (seconds <= BUCKETS[i]) {
+                    buckets.incrementAndGet(i);
+                }
+            }
+            sumNanos.addAndGet(nanos);
+            count.incrementAndGet();
+        }
+    }
+
+    private final Map<Phase, Histogram> phases = new EnumMap<>(Phase.class);
+
+    private final Map<PdfVariant, ConcurrentMap<Integer, AtomicLong>> requests = new EnumMap<>(PdfVariant.class);
+
+    private final Map<PdfVariant, AtomicLong> bytesServed = new EnumMap<>(PdfVariant.class);
+
+    private final ConcurrentMap<String, Histogram> upstreams = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, AtomicLong> upstreamErrors = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, AtomicLong> feedFetches = new ConcurrentHashMap<>();
+
+    private final AtomicLong pdfHits = new AtomicLong();
+    private final AtomicLong pdfMisses = new AtomicLong();
+
+    Metrics() {
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, new Histogram());
+        }
+        for (PdfVariant variant : PdfVariant.getServed()) {
+            requests.put(variant, new ConcurrentHashMap<Integer, AtomicLong>());
+            bytesServed.put(variant, new AtomicLong());
+        }
+    }
+
+    /**
+     * @param phase phase measured.
+     * @param nanos duration of the phase, from {@link System#nanoTime()}.
+     */
+    public void observe(Phase phase, long nanos) {
+        phases.get(phase).observe(nanos);
+    }
+
+    /**
+     * @param host host requested by {@link UpstreamClient}.
+     * @param nanos time until the response headers were received, or until the failure.
+     * @param failed true if no response was received.
+     */
+    public void observeUpstream(String host, long nanos, boolean failed) {
+        Histogram histogram = upstreams.get(host);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram();
+            histogram = upstreams.putIfAbsent(host, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        histogram.observe(nanos);
+        if (failed) {
+            getCounter(upstreamErrors, host).incrementAndGet();
+        }
+    }
+
+    /**
+     * Count a fetch of a feed.
+     * @param feed name of the feed.
+     * @param result "not_modified", "unchanged" if downloaded with the same content, or "changed".
+     */
+    public void feedFetch(String feed, String result) {
+        getCounter(feedFetches, "feed=\"" + feed + "\",result=\"" + result + '"').incrementAndGet();
+    }
+
+    /**
+     * Count a request for a PDF.
+     * @param variant PDF requested.
+     * @param status http status of the response.
+     * @param bytes number of bytes of PDF sent.
+     */
+    public void request(PdfVariant variant, int status, long bytes) {
+        getCounter(requests.get(variant), status).incrementAndGet();
+        bytesServed.get(variant).addAndGet(bytes);
+    }
+
+    private static <K> AtomicLong getCounter(ConcurrentMap<K, AtomicLong> counters, K key) {
+        AtomicLong counter = counters.get(key);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(key, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Count a lookup in the cache of rendered PDF.
+     * @param hit true if the PDF was up to date, false if it was rendered.
+     */
+    public void pdfCacheLookup(boolean hit) {
+        (hit ? pdfHits : pdfMisses).incrementAndGet();
+    }
+
+    /**
+     * @return all the metrics, in the Prometheus text format.
+     */
+    public String write() {
+        StringBuilder builder = new StringBuilder();
+
+        String phaseName = PREFIX + "phase_duration_seconds";
+        builder.append("# HELP ").append(phaseName).append(" Duration of the phases of the production of the PDF.\n");
+        builder.append("# TYPE ").append(phaseName).append(" histogram\n");
+        for (Map.Entry<Phase, Histogram> entry : phases.entrySet()) {
+            writeHistogram(builder, phaseName, "phase=\"" + entry.getKey().getLabel() + '"', entry.getValue());
+        }
+
+        String upstreamName = PREFIX + "upstream_latency_seconds";
+        builder.append("# HELP ").append(upstreamName).append(" Time until the response headers of breizhcamp.org are received, by host.\n");
+        builder.append("# TYPE ").append(upstreamName).append(" histogram\n");
+        for (Map.Entry<String, Histogram> entry : upstreams.entrySet()) {
+            writeHistogram(builder, upstreamName, "host=\"" + entry.getKey() + '"', entry.getValue());
+        }
+
+        String upstreamErrorsName = PREFIX + "upstream_errors_total";
+        builder.append("# HELP ").append(upstreamErrorsName).append(" Requests to breizhcamp.org without response, by host.\n");
+        builder.append("# TYPE ").append(upstreamErrorsName).append(" counter\n");
+        for (Map.Entry<String, AtomicLong> entry : upstreamErrors.entrySet()) {
+            builder.append(upstreamErrorsName).append("{host=\"").append(entry.getKey()).append("\"} ")
+                    .append(entry.getValue().get()).append('\n');
+        }
+
+        String feedsName = PREFIX + "feed_fetches_total";
+        builder.append("# HELP ").append(feedsName).append(" Fetches of the feeds, by result.\n");
+        builder.append("# TYPE ").append(feedsName).append(" counter\n");
+        for (Map.Entry<String, AtomicLong> entry : feedFetches.entrySet()) {
+            builder.append(feedsName).append('{').append(entry.getKey()).append("} ").append(entry.getValue().get()).append('\n');
+        }
+
+        String requestsName = PREFIX + "requests_total";
+        builder.append("# HELP ").append(requestsName).append(" Requests of PDF, by variant and http status.\n");
+        builder.append("# TYPE ").append(requestsName).append(" counter\n");
+        for (Map.Entry<PdfVariant, ConcurrentMap<Integer, AtomicLong>> entry : requests.entrySet()) {
+            for (Map.Entry<Integer, AtomicLong> status : entry.getValue().entrySet()) {
+                builder.append(requestsName).append("{variant=\"").append(getLabel(entry.getKey()))
+                        .append("\",status=\"").append(status.getKey()).append("\"} ").append(status.getValue().get()).append('\n');
+            }
+        }
+
+        String bytesName = PREFIX + "served_bytes_total";
+        builder.append("# HELP ").append(bytesName).append(" Bytes of PDF served, by variant.\n");
+        builder.append("# TYPE ").append(bytesName).append(" counter\n");
+        for (Map.Entry<PdfVariant, AtomicLong> entry : bytesServed.entrySet()) {
+            builder.append(bytesName).append("{variant=\"").append(getLabel(entry.getKey())).append("\"} ")
+                    .append(entry.getValue().get()).append('\n');
+        }
+
+        Map<String, long[]> caches = new LinkedHashMap<>();
+        caches.put("pdf", new long[]{pdfHits.get(), pdfMisses.get()});
+        caches.put("avatars", new long[]{AvatarService.INSTANCE.getHitCount(), AvatarService.INSTANCE.getMissCount()});
+        caches.put("descriptions", new long[]{Descriptions.INSTANCE.getHitCount(), Descriptions.INSTANCE.getMissCount()});
+        writeCaches(builder, caches);
+
+        return builder.toString();
+    }
+
+    private static void writeHistogram(StringBuilder builder, String name, String label, Histogram histogram) {
+        // Count is read first, so that no bucket is greater than +Inf.
+        long count = histogram.count.get();
+        for (int i = 0; i < Histogram.BUCKETS.length; i++) {
+            builder.append(name).append("_bucket{").append(label).append(",le=\"").append(Histogram.BUCKETS[i]).append("\"} ")
+                    .append(Math.min(histogram.buckets.get(i), count)).append('\n');
+        }
+        builder.append(name).append("_bucket{").append(label).append(",le=\"+Inf\"} ").append(count).append('\n');
+        builder.append(name).append("_sum{").append(label).append("} ")
+                .append(histogram.sumNanos.get() / (double) TimeUnit.SECONDS.toNanos(1)).append('\n');
+        builder.append(name).append("_count{").append(label).append("} ").append(count).append('\n');
+    }
+
+    private static void writeCaches(StringBuilder builder, Map<String, long[]> caches) {
+        String hitsName = PREFIX + "cache_hits_total";
+        builder.append("# HELP ").append(hitsName).append(" Lookups found in cache.\n");
+        builder.append("# TYPE ").append(hitsName).append(" counter\n");
+        for (Map.Entry<String, long[]> entry : caches.entrySet()) {
+            builder.append(hitsName).append("{cache=\"").append(entry.getKey()).append("\"} ").append(entry.getValue()[0]).append('\n');
+        }
+
+        String missesName = PREFIX + "cache_misses_total";
+        builder.append("# HELP ").append(missesName).append(" Lookups not found in cache.\n");
+        builder.append("# TYPE ").append(missesName).append(" counter\n");
+        for (Map.Entry<String, long[]> entry : caches.entrySet()) {
+            builder.append(missesName).append("{cache=\"").append(entry.getKey()).append("\"} ").append(entry.getValue()[1]).append('\n');
+        }
+
+        String ratioName = PREFIX + "cache_hit_ratio";
+        builder.append("# HELP ").append(ratioName).append(" Ratio of the lookups found in cache, NaN before the first lookup.\n");
+        builder.append("# TYPE ").append(ratioName).append(" gauge\n");
+        for (Map.Entry<String, long[]> entry : caches.entrySet()) {
+            long hits = entry.getValue()[0];
+            long lookups = hits + entry.getValue()[1];
+            builder.append(ratioName).append("{cache=\"").append(entry.getKey()).append("\"} ")
+                    .append(lookups == 0 ? "NaN" : Double.toString(hits / (double) lookups)).append('\n');
+        }
+    }
+
+    private static String getLabel(PdfVariant variant) {
+        return variant.name().toLowerCase(Locale.ENGLISH);
+    }
+}
@@ -36,11 +36,16 @@ public class MiniProgTableRenderer {
 
     private Document document;
     private PdfWriter pdfWriter;
-    private DataService service = new DataService();
+    private DataService service;
 
     public MiniProgTableRenderer(Document document, PdfWriter pdfWriter) {
+        this(document, pdfWriter, ProgrammeStore.INSTANCE.get());
+    }
+
+    public MiniProgTableRenderer(Document document, PdfWriter pdfWriter, DataService service) {
         this.document = document;
         this.pdfWriter = pdfWriter;
+        this.service = service;
     }
 
     public void render() throws DocumentException, IOException {
@@ -86,7 +91,7 @@ public class MiniProgTableRenderer {
                 startTime.setAlignment(Element.ALIGN_CENTER);
                 startTime.getFont().setSize(3);
                 cellCreneau.addElement(startTime);
-                Paragraph endTime = new Paragraph(getEndTime(date, creneau));
+                Paragraph endTime = new Paragraph(service.getEndTime(date, creneau));
                 endTime.setAlignment(Element.ALIGN_CENTER);
                 endTime.getFont().setSize(3);
                 cellCreneau.addElement(endTime);
@@ -129,17 +134,6 @@ public class MiniProgTableRenderer {
         return talksToExplain;
     }
 
-    protected String getEndTime(String date, String creneau) {
-        String endTime = "99:99";
-        for (String room : service.getRooms(date, false)) {
-            Talk talk = service.getTalkByDateAndCreneauxAndRoom(date, creneau, room);
-            if (talk != null && talk.getEnd().compareTo(endTime) < 0) {
-                endTime = talk.getEnd();
-            }
-        }
-        return endTime;
-    }
-
     private PdfPTable createBeginningOfPage(String date) throws DocumentException {
 
         Paragraph titre = new Paragraph("Programme du " + date, titleFont);
@@ -42,11 +42,16 @@ public class MiniProgTextRenderer {
 
     private Document document;
     private PdfWriter pdfWriter;
-    private DataService service = new DataService();
+    private DataService service;
 
     public MiniProgTextRenderer(Document document, PdfWriter pdfWriter) {
+        this(document, pdfWriter, ProgrammeStore.INSTANCE.get());
+    }
+
+    public MiniProgTextRenderer(Document document, PdfWriter pdfWriter, DataService service) {
         this.document = document;
         this.pdfWriter = pdfWriter;
+        this.service = service;
     }
     
     private void addBackground() throws DocumentException, IOException {
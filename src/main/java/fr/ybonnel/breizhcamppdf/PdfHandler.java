@@ -16,6 +16,16 @@
  */
 package fr.ybonnel.breizhcamppdf;
 
+import com.google.common.base.Throwables;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.itextpdf.text.Document;
 import com.itextpdf.text.DocumentException;
 import com.itextpdf.text.PageSize;
@@ -23,33 +33,468 @@ import com.itextpdf.text.pdf.PdfWriter;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class PdfHandler extends AbstractHandler {
 
+    /**
+     * Rendered PDF, with the fingerprint and the generation of the data used to render it.
+     */
+    protected static class RenderedPdf {
+        private final String fingerprint;
+        private final long generation;
+        private final byte[] content;
+        private final String etag;
+        private final long lastModified;
+
+        /**
+         * @param generation generation of the data, see {@link DataService#getGeneration()}.
+         */
+        public RenderedPdf(String fingerprint, long generation, byte[] content, long lastModified) {
+            this.fingerprint = fingerprint;
+            this.generation = generation;
+            this.content = content;
+            // Two renders of the same data differ (creation date, ids), so a range must only be taken from this content.
+            this.etag = '"' + Hashing.sha1().hashBytes(content).toString() + '"';
+            // Http dates have a precision of one second.
+            this.lastModified = lastModified / 1000 * 1000;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public long getGeneration() {
+            return generation;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+
+    /**
+     * Requests are handled asynchronously when the property "render.async" is true, false by default :
+     * the programme is loaded and the PDF rendered on {@link #RENDERER}, then sent from {@link #RESPONDER},
+     * so that Jetty threads are never held by a render.
+     */
+    private static final boolean ASYNC = Boolean.getBoolean("render.async");
+
+    private static final long ASYNC_TIMEOUT = TimeUnit.SECONDS.toMillis(Long.getLong("render.async.timeout.seconds", 120));
+
+    private static final ListeningExecutorService RENDERER = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(
+            Integer.getInteger("render.async.threads", Runtime.getRuntime().availableProcessors()),
+            new ThreadFactoryBuilder().setNameFormat("pdf-render-%d").setDaemon(true).build()));
+
+    /**
+     * Responses may block on slow clients, so they are sent from threads of their own.
+     * Those threads ("render.async.responders", 16 by default) and the responses waiting for one
+     * ("render.async.responses.queued", 64 by default) are bounded, a response beyond gets a 503.
+     */
+    private static final ThreadPoolExecutor RESPONDER = createResponder();
+
+    private static ThreadPoolExecutor createResponder() {
+        int threads = Integer.getInteger("render.async.responders", 16);
+        ThreadPoolExecutor responder = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<Runnable>(Integer.getInteger("render.async.responses.queued", 64)),
+                new ThreadFactoryBuilder().setNameFormat("pdf-response-%d").setDaemon(true).build());
+        responder.allowCoreThreadTimeOut(true);
+        return responder;
+    }
+
+    private final ConcurrentMap<PdfVariant, RenderedPdf> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Renders in progress, by fingerprint.
+     */
+    private final ConcurrentMap<String, ListenableFutureTask<RenderedPdf>> renders = new ConcurrentHashMap<>();
 
     @Override
-    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
-        if (baseRequest.getPathInfo().equals("/programme.pdf")) {
-            generate(response.getOutputStream(), true);
+    public void handle(String target, Request baseRequest, final HttpServletRequest request, final HttpServletResponse response) throws IOException, ServletException {
+        final PdfVariant variant = PdfVariant.fromPath(baseRequest.getPathInfo());
+        if (variant == null) {
+            return;
         }
-        else if (baseRequest.getPathInfo().equals("/salles.pdf")) {
-            generate(response.getOutputStream(), false);
+        baseRequest.setHandled(true);
+
+        if (!ASYNC || isUpToDate(variant)) {
+            RenderedPdf pdf;
+            try {
+                pdf = getPdf(variant);
+            } catch (IOException | RuntimeException e) {
+                Metrics.INSTANCE.request(variant, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, 0);
+                throw e;
+            }
+            write(variant, request, response, pdf);
+            return;
         }
+
+        // The Jetty thread is released, the response is completed once the PDF is rendered.
+        final AsyncContext async = request.startAsync();
+        async.setTimeout(ASYNC_TIMEOUT);
+        final AtomicBoolean completed = new AtomicBoolean();
+        async.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                sendError(variant, response, async, completed, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+        Futures.addCallback(getPdfAsync(variant), new FutureCallback<RenderedPdf>() {
+            @Override
+            public void onSuccess(final RenderedPdf pdf) {
+                try {
+                    RESPONDER.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!completed.compareAndSet(false, true)) {
+                                return;
+                            }
+                            try {
+                                write(variant, request, response, pdf);
+                            } catch (IOException e) {
+                                System.err.println("Can't send " + variant.getPath() + " : " + e);
+                            } finally {
+                                async.complete();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    sendError(variant, response, async, completed, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                System.err.println("Can't render " + variant.getPath() + " : " + t);
+                sendError(variant, response, async, completed, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+        });
+    }
+
+    /**
+     * Complete an asynchronous request with an error, unless it is already completed.
+     */
+    private static void sendError(PdfVariant variant, HttpServletResponse response, AsyncContext async,
+                                  AtomicBoolean completed, int status) {
+        if (!completed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            response.sendError(status);
+        } catch (IOException e) {
+            System.err.println("Can't send error for " + variant.getPath() + " : " + e);
+        } finally {
+            Metrics.INSTANCE.request(variant, status, 0);
+            async.complete();
+        }
+    }
+
+    private static void write(PdfVariant variant, HttpServletRequest request, HttpServletResponse response, RenderedPdf pdf) throws IOException {
+        response.setHeader("ETag", pdf.getEtag());
+        response.setDateHeader("Last-Modified", pdf.getLastModified());
+        response.setHeader("Accept-Ranges", "bytes");
+        if (isNotModified(request, pdf)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            Metrics.INSTANCE.request(variant, HttpServletResponse.SC_NOT_MODIFIED, 0);
+            return;
+        }
+
+        // Resumed downloads ask for the end of the PDF.
+        String range = request.getHeader("Range");
+        if (range != null && isRangeApplicable(request, pdf)) {
+            List<ByteRanges.Range> ranges = ByteRanges.parse(range, pdf.getContent().length);
+            if (ranges != null && ranges.isEmpty()) {
+                ByteRanges.writeNotSatisfiable(response, pdf.getContent().length);
+                Metrics.INSTANCE.request(variant, HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, 0);
+                return;
+            }
+            if (ranges != null) {
+                long sent = ByteRanges.write(response, pdf.getContent(), "application/pdf", ranges);
+                Metrics.INSTANCE.request(variant, HttpServletResponse.SC_PARTIAL_CONTENT, sent);
+                return;
+            }
+        }
+
+        response.setContentType("application/pdf");
+        response.setContentLength(pdf.getContent().length);
+        response.getOutputStream().write(pdf.getContent());
+        Metrics.INSTANCE.request(variant, HttpServletResponse.SC_OK, pdf.getContent().length);
+    }
+
+    /**
+     * @return true if the PDF can be sent without loading the programme nor rendering.
+     */
+    private boolean isUpToDate(PdfVariant variant) {
+        DataService service = ProgrammeStore.INSTANCE.getIfLoaded();
+        RenderedPdf pdf = cache.get(variant);
+        return service != null && pdf != null && pdf.getFingerprint().equals(variant.name() + '/' + service.getFingerprint());
+    }
+
+    /**
+     * Get the rendered PDF from the cache, render it if the data changed since the last render.
+     * <p>
+     * Only one render runs for a variant and a version of the data : concurrent callers wait for it,
+     * and get the same PDF or the same error.
+     */
+    protected RenderedPdf getPdf(PdfVariant variant) throws IOException {
+        return get(getPdf(variant, ProgrammeStore.INSTANCE.get(), MoreExecutors.sameThreadExecutor()));
     }
 
+    /**
+     * Same as {@link #getPdf(PdfVariant)}, but the programme is loaded and the PDF rendered on {@link #RENDERER}.
+     */
+    private ListenableFuture<RenderedPdf> getPdfAsync(final PdfVariant variant) {
+        DataService loaded = ProgrammeStore.INSTANCE.getIfLoaded();
+        ListenableFuture<DataService> service = loaded != null ? Futures.immediateFuture(loaded)
+                : RENDERER.submit(new Callable<DataService>() {
+            @Override
+            public DataService call() {
+                return ProgrammeStore.INSTANCE.get();
+            }
+        });
+        return Futures.transform(service, new AsyncFunction<DataService, RenderedPdf>() {
+            @Override
+            public ListenableFuture<RenderedPdf> apply(DataService service) {
+                return getPdf(variant, service, RENDERER);
+            }
+        });
+    }
+
+    /**
+     * @param executor executor of the render, if the PDF is not in cache and no render is running.
+     */
+    ListenableFuture<RenderedPdf> getPdf(final PdfVariant variant, final DataService service, Executor executor) {
+        final String fingerprint = variant.name() + '/' + service.getFingerprint();
+
+        RenderedPdf pdf = cache.get(variant);
+        boolean upToDate = pdf != null && pdf.getFingerprint().equals(fingerprint);
+        Metrics.INSTANCE.pdfCacheLookup(upToDate);
+        if (upToDate) {
+            return Futures.immediateFuture(pdf);
+        }
+
+        final ListenableFutureTask<RenderedPdf> render = ListenableFutureTask.create(new Callable<RenderedPdf>() {
+            @Override
+            public RenderedPdf call() throws IOException {
+                // The render may have ended between the lookup and the registration of this one.
+                RenderedPdf rendered = cache.get(variant);
+                if (rendered == null || !rendered.getFingerprint().equals(fingerprint)) {
+                    rendered = render(variant, service, fingerprint);
+                    store(variant, rendered);
+                }
+                return rendered;
+            }
+        });
+        ListenableFutureTask<RenderedPdf> running;
+        while ((running = renders.putIfAbsent(fingerprint, render)) != null) {
+            if (!running.isDone()) {
+                return running;
+            }
+            // Ended but not removed yet by its listener : a failure must not be given to the next callers.
+            renders.remove(fingerprint, running);
+        }
+        render.addListener(new Runnable() {
+            @Override
+            public void run() {
+                // A failed render is retried by the next request.
+                renders.remove(fingerprint, render);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        executor.execute(render);
+        return render;
+    }
+
+    /**
+     * Cache a render, unless the render of more recent data ended first.
+     */
+    private void store(PdfVariant variant, RenderedPdf rendered) {
+        RenderedPdf cached;
+        while ((cached = cache.putIfAbsent(variant, rendered)) != null) {
+            if (cached.getGeneration() >= rendered.getGeneration() || cache.replace(variant, cached, rendered)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Render a PDF, called once for a variant and a version of the data.
+     */
+    protected RenderedPdf render(PdfVariant variant, DataService service, String fingerprint) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        variant.generate(service, output);
+        byte[] content = output.toByteArray();
+        if (PdfOptimizer.ENABLED) {
+            content = PdfOptimizer.optimize(variant.getPath(), content);
+        }
+        if (PdfLinearizer.ENABLED) {
+            content = PdfLinearizer.linearize(variant.getPath(), content);
+        }
+        return new RenderedPdf(fingerprint, service.getGeneration(), content, System.currentTimeMillis());
+    }
+
+    private static RenderedPdf get(Future<RenderedPdf> render) throws IOException {
+        try {
+            return render.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the render", e);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private static boolean isNotModified(HttpServletRequest request, RenderedPdf pdf) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String etag : ifNoneMatch.split(",")) {
+                etag = etag.trim();
+                if (etag.equals("*") || etag.equals(pdf.getEtag()) || etag.equals("W/" + pdf.getEtag())) {
+                    return true;
+                }
+            }
+            // If-None-Match takes precedence over If-Modified-Since.
+            return false;
+        }
+        try {
+            long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            return ifModifiedSince != -1 && ifModifiedSince >= pdf.getLastModified();
+        } catch (IllegalArgumentException invalidDate) {
+            return false;
+        }
+    }
+
+    /**
+     * A range is sent only if the PDF is still the one given by If-Range, else the whole new PDF is sent.
+     */
+    private static boolean isRangeApplicable(HttpServletRequest request, RenderedPdf pdf) {
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // Weak validators can't be used for ranges.
+            return ifRange.equals(pdf.getEtag());
+        }
+        try {
+            return request.getDateHeader("If-Range") == pdf.getLastModified();
+        } catch (IllegalArgumentException invalidDate) {
+            return false;
+        }
+    }
+
+    /**
+     * Render all the PDF for the printer, in parallel, from a single load of the programme,
+     * including the ones which are not served over http.
+     * <p>
+     * Usage : PdfHandler [output directory], the current directory by default.
+     */
     public static void main(String[] args) throws Exception {
-        //generate(new FileOutputStream("programme.pdf"), true);
-        //generate(new FileOutputStream("salles.pdf"), false);
-        generateMini(new FileOutputStream("mini-prog.pdf"));
+        final File directory = new File(args.length > 0 ? args[0] : ".");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            System.err.println("Can't create " + directory);
+            System.exit(1);
+        }
+
+        long start = System.nanoTime();
+        final DataService service = DataService.load();
+        long loaded = System.nanoTime();
+        System.out.println("Programme loaded in " + TimeUnit.NANOSECONDS.toMillis(loaded - start) + "ms");
+        AvatarService.INSTANCE.prefetch(service.getAvatarUrls());
+        System.out.println("Avatars loaded in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loaded) + "ms");
+
+        final PdfHandler handler = new PdfHandler();
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (final PdfVariant variant : PdfVariant.values()) {
+            tasks.add(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    long renderStart = System.nanoTime();
+                    byte[] content = handler.render(variant, service, variant.name() + '/' + service.getFingerprint()).getContent();
+                    File file = new File(directory, variant.getPath().substring(1));
+                    try (FileOutputStream output = new FileOutputStream(file)) {
+                        output.write(content);
+                    }
+                    return file.getPath() + " : " + content.length + " bytes in "
+                            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - renderStart) + "ms";
+                }
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        boolean failed = false;
+        try {
+            for (Future<String> result : executor.invokeAll(tasks)) {
+                try {
+                    System.out.println(result.get());
+                } catch (ExecutionException e) {
+                    System.err.println("Can't render : " + e.getCause());
+                    failed = true;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        System.out.println("Done in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        System.exit(failed ? 1 : 0);
     }
 
-    protected static void generate(OutputStream output, boolean schedule) throws IOException {
+    protected static void generate(DataService service, OutputStream output, boolean schedule) throws IOException {
+        if (PdfParts.ENABLED) {
+            try {
+                PdfParts.merge(schedule ? FullProgRenderer.getParts(service) : RoomProgRenderer.getParts(service),
+                        PageSize.A4.rotate(), output);
+            } catch (DocumentException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+
         Document document = new Document(PageSize.A4.rotate());
 
         try {
@@ -57,21 +502,28 @@ public class PdfHandler extends AbstractHandler {
 
             document.open();
 
+            long start = System.nanoTime();
             if (schedule) {
-                new FullProgRenderer(document, pdfWriter).render();
+                new FullProgRenderer(document, pdfWriter, service).render();
             }
             else {
-                new RoomProgRenderer(document, pdfWriter).render();
+                new RoomProgRenderer(document, pdfWriter, service).render();
             }
+            long written = System.nanoTime();
+            Metrics.INSTANCE.observe(Metrics.Phase.LAYOUT, written - start);
 
             document.close();
+            Metrics.INSTANCE.observe(Metrics.Phase.PDF_WRITE, System.nanoTime() - written);
 
         } catch (DocumentException e) {
             throw new RuntimeException(e);
         }
     }
 
-    protected static void generateMini(OutputStream output) throws IOException {
+    /**
+     * @param text true for the text mini programme, false for the table one.
+     */
+    protected static void generateMini(DataService service, OutputStream output, boolean text) throws IOException {
         Document document = new Document(PageSize.A6);
         document.setMargins(0, 0, 0, 0);
 
@@ -80,9 +532,18 @@ public class PdfHandler extends AbstractHandler {
 
             document.open();
 
-            new MiniProgTextRenderer(document, pdfWriter).render();
+            long start = System.nanoTime();
+            if (text) {
+                new MiniProgTextRenderer(document, pdfWriter, service).render();
+            }
+            else {
+                new MiniProgTableRenderer(document, pdfWriter, service).render();
+            }
+            long written = System.nanoTime();
+            Metrics.INSTANCE.observe(Metrics.Phase.LAYOUT, written - start);
 
             document.close();
+            Metrics.INSTANCE.observe(Metrics.Phase.PDF_WRITE, System.nanoTime() - written);
 
         } catch (DocumentException e) {
             throw new RuntimeException(e);
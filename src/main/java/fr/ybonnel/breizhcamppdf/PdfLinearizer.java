@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Linearize a generated PDF ("fast web view"), so that a viewer shows the first pages while the rest is downloaded.
+ * <p>
+ * iText 5 can't write linearized PDF, so this is done by an external command, qpdf by default.
+ * The command gets the input and output files as its last two arguments.
+ * If it is missing or fails, the PDF is served as generated.
+ */
+public final class PdfLinearizer {
+
+    /**
+     * Linearize the PDF when the property "pdf.linearize" is true, false by default.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("pdf.linearize");
+
+    /**
+     * Command to run, "qpdf --linearize" by default, arguments separated by spaces.
+     */
+    private static final List<String> COMMAND =
+            Arrays.asList(System.getProperty("pdf.linearize.command", "qpdf --linearize").trim().split("\\s+"));
+
+    private static final long TIMEOUT = Long.getLong("pdf.linearize.timeout.seconds", 30);
+
+    /**
+     * Exit code of qpdf when the output was written with warnings.
+     */
+    private static final int EXIT_WARNINGS = 3;
+
+    private PdfLinearizer() {
+    }
+
+    /**
+     * @param name name of the PDF, for the log.
+     * @param pdf content of the PDF.
+     * @return content of the linearized PDF, or the PDF given if it can't be linearized.
+     */
+    public static byte[] linearize(String name, byte[] pdf) {
+        long start = System.nanoTime();
+        File input = null;
+        File output = null;
+        try {
+            input = File.createTempFile("linearize", ".pdf");
+            output = File.createTempFile("linearized", ".pdf");
+            Files.write(input.toPath(), pdf);
+
+            List<String> command = new ArrayList<>(COMMAND);
+            command.add(input.getPath());
+            command.add(output.getPath());
+            Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.INHERIT).start();
+            if (!waitFor(process)) {
+                process.destroy();
+                System.err.println("Can't linearize " + name + " : timeout after " + TIMEOUT + "s");
+                return pdf;
+            }
+            if (process.exitValue() != 0 && process.exitValue() != EXIT_WARNINGS || output.length() == 0) {
+                System.err.println("Can't linearize " + name + " : exit code " + process.exitValue());
+                return pdf;
+            }
+
+            byte[] linearized = Files.readAllBytes(output.toPath());
+            long duration = System.nanoTime() - start;
+            Metrics.INSTANCE.observe(Metrics.Phase.PDF_WRITE, duration);
+            System.out.println("Linearize " + name + " : " + pdf.length + " -> " + linearized.length + " bytes in "
+                    + TimeUnit.NANOSECONDS.toMillis(duration) + "ms");
+            return linearized;
+        } catch (IOException e) {
+            System.err.println("Can't linearize " + name + " : " + e);
+            return pdf;
+        } finally {
+            if (input != null) {
+                input.delete();
+            }
+            if (output != null) {
+                output.delete();
+            }
+        }
+    }
+
+    /**
+     * Process.waitFor(long, TimeUnit) is Java 8.
+     * @return true if the process ended before the timeout.
+     */
+    private static boolean waitFor(Process process) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT);
+        while (true) {
+            try {
+                process.exitValue();
+                return true;
+            } catch (IllegalThreadStateException running) {
+                if (System.nanoTime() > deadline) {
+                    return false;
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+    }
+}
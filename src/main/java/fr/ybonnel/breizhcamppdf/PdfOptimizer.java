@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.pdf.PRStream;
+import com.itextpdf.text.pdf.PdfCopy;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfObject;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfSmartCopy;
+import com.itextpdf.text.pdf.PdfStream;
+import com.itextpdf.text.pdf.SimpleNamedDestination;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Make a generated PDF smaller, to serve it on the conference Wi-Fi.
+ * <p>
+ * The PDF is copied with identical streams shared, in full compression (PDF 1.5 object and cross-reference streams),
+ * and its streams without decode parameters are compressed again at the best level.
+ */
+public final class PdfOptimizer {
+
+    /**
+     * Optimize the PDF when the property "pdf.optimize" is true, false by default.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("pdf.optimize");
+
+    private PdfOptimizer() {
+    }
+
+    /**
+     * @param name name of the PDF, for the log.
+     * @param pdf content of the PDF.
+     * @return content of the optimized PDF.
+     */
+    public static byte[] optimize(String name, byte[] pdf) throws IOException {
+        long start = System.nanoTime();
+        PdfReader reader = new PdfReader(pdf);
+        recompress(reader);
+        Map<String, String> destinations = SimpleNamedDestination.getNamedDestination(reader, false);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(pdf.length);
+        Document document = new Document(reader.getPageSizeWithRotation(1));
+        try {
+            PdfCopy copy = new PdfSmartCopy(document, output);
+            copy.setFullCompression();
+            copy.setCompressionLevel(PdfStream.BEST_COMPRESSION);
+            document.open();
+            for (int page = 1; page <= reader.getNumberOfPages(); page++) {
+                copy.addPage(copy.getImportedPage(reader, page));
+            }
+            copy.freeReader(reader);
+            copy.addNamedDestinations(destinations, 0);
+            document.close();
+        } catch (DocumentException e) {
+            throw new RuntimeException(e);
+        } finally {
+            reader.close();
+        }
+
+        byte[] optimized = output.toByteArray();
+        long duration = System.nanoTime() - start;
+        Metrics.INSTANCE.observe(Metrics.Phase.PDF_WRITE, duration);
+        System.out.println("Optimize " + name + " : " + pdf.length + " -> " + optimized.length + " bytes ("
+                + (100 - optimized.length * 100L / pdf.length) + "% saved) in " + TimeUnit.NANOSECONDS.toMillis(duration) + "ms");
+        return optimized;
+    }
+
+    /**
+     * Compress again the streams which are only deflated, with the best level.
+     * Streams with decode parameters, as PNG images, are kept as is.
+     */
+    private static void recompress(PdfReader reader) throws IOException {
+        for (int i = 1; i < reader.getXrefSize(); i++) {
+            PdfObject object = reader.getPdfObject(i);
+            if (object instanceof PRStream) {
+                PRStream stream = (PRStream) object;
+                if (PdfName.FLATEDECODE.equals(stream.get(PdfName.FILTER)) && stream.get(PdfName.DECODEPARMS) == null) {
+                    stream.setData(PdfReader.getStreamBytes(stream), true, PdfStream.BEST_COMPRESSION);
+                }
+            }
+        }
+    }
+}
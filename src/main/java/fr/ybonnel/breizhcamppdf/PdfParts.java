@@ -0,0 +1,125 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import com.google.common.base.Throwables;
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.Rectangle;
+import com.itextpdf.text.pdf.PdfCopy;
+import com.itextpdf.text.pdf.PdfSmartCopy;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfWriter;
+import com.itextpdf.text.pdf.SimpleNamedDestination;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Render the parts of a PDF in parallel, each one in its own document, then merge them in order.
+ * <p>
+ * Named destinations of the parts are kept in the merged document, so a part can link to another one
+ * with a named GoTo action.
+ */
+public final class PdfParts {
+
+    /**
+     * Render in parts when the property "render.parallel" is true, false by default.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("render.parallel");
+
+    private static final ForkJoinPool POOL =
+            new ForkJoinPool(Integer.getInteger("render.parallelism", Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * A part of a PDF, rendered in a document of its own.
+     */
+    public interface Part {
+        void render(Document document, PdfWriter writer) throws DocumentException, IOException;
+    }
+
+    private PdfParts() {
+    }
+
+    /**
+     * Render the parts on the pool, and merge them in the output.
+     * @param parts parts in the order of the merged document.
+     * @param pageSize initial page size of each part.
+     */
+    public static void merge(List<? extends Part> parts, final Rectangle pageSize, OutputStream output) throws DocumentException, IOException {
+        List<Callable<byte[]>> tasks = new ArrayList<>();
+        for (final Part part : parts) {
+            tasks.add(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    ByteArrayOutputStream content = new ByteArrayOutputStream();
+                    Document document = new Document(pageSize);
+                    PdfWriter writer = PdfWriter.getInstance(document, content);
+                    document.open();
+                    long start = System.nanoTime();
+                    part.render(document, writer);
+                    long written = System.nanoTime();
+                    Metrics.INSTANCE.observe(Metrics.Phase.LAYOUT, written - start);
+                    document.close();
+                    Metrics.INSTANCE.observe(Metrics.Phase.PDF_WRITE, System.nanoTime() - written);
+                    return content.toByteArray();
+                }
+            });
+        }
+        List<Future<byte[]>> rendered = POOL.invokeAll(tasks);
+
+        long start = System.nanoTime();
+        Document document = new Document(pageSize);
+        PdfCopy copy = new PdfSmartCopy(document, output);
+        document.open();
+        int pages = 0;
+        for (Future<byte[]> part : rendered) {
+            PdfReader reader = new PdfReader(get(part));
+            Map<String, String> destinations = SimpleNamedDestination.getNamedDestination(reader, false);
+            for (int page = 1; page <= reader.getNumberOfPages(); page++) {
+                copy.addPage(copy.getImportedPage(reader, page));
+            }
+            copy.freeReader(reader);
+            copy.addNamedDestinations(destinations, pages);
+            pages += reader.getNumberOfPages();
+            reader.close();
+        }
+        document.close();
+        Metrics.INSTANCE.observe(Metrics.Phase.PDF_WRITE, System.nanoTime() - start);
+    }
+
+    private static byte[] get(Future<byte[]> part) throws DocumentException, IOException {
+        try {
+            return part.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), DocumentException.class);
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+}
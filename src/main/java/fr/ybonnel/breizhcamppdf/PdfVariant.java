@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * PDF documents rendered by {@link PdfHandler} : served over http, or only rendered by its batch command.
+ */
+public enum PdfVariant {
+    PROGRAMME("/programme.pdf", true) {
+        @Override
+        protected void generate(DataService service, OutputStream output) throws IOException {
+            PdfHandler.generate(service, output, true);
+        }
+    },
+    SALLES("/salles.pdf", true) {
+        @Override
+        protected void generate(DataService service, OutputStream output) throws IOException {
+            PdfHandler.generate(service, output, false);
+        }
+    },
+    MINI_TEXT("/mini-prog.pdf", false) {
+        @Override
+        protected void generate(DataService service, OutputStream output) throws IOException {
+            PdfHandler.generateMini(service, output, true);
+        }
+    },
+    MINI_TABLE("/mini-prog-table.pdf", false) {
+        @Override
+        protected void generate(DataService service, OutputStream output) throws IOException {
+            PdfHandler.generateMini(service, output, false);
+        }
+    };
+
+    private final String path;
+
+    private final boolean servedOverHttp;
+
+    /**
+     * @param path path of the document over http, and its file name for the batch command.
+     * @param servedOverHttp false for the documents only rendered by the batch command.
+     */
+    PdfVariant(String path, boolean servedOverHttp) {
+        this.path = path;
+        this.servedOverHttp = servedOverHttp;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public boolean isServedOverHttp() {
+        return servedOverHttp;
+    }
+
+    /**
+     * @return the variants served over http.
+     */
+    public static Set<PdfVariant> getServed() {
+        Set<PdfVariant> served = EnumSet.noneOf(PdfVariant.class);
+        for (PdfVariant variant : values()) {
+            if (variant.servedOverHttp) {
+                served.add(variant);
+            }
+        }
+        return served;
+    }
+
+    protected abstract void generate(DataService service, OutputStream output) throws IOException;
+
+    /**
+     * @param path path of the request.
+     * @return the variant served on this path, null if none.
+     */
+    public static PdfVariant fromPath(String path) {
+        for (PdfVariant variant : getServed()) {
+            if (variant.path.equals(path)) {
+                return variant;
+            }
+        }
+        return null;
+    }
+}
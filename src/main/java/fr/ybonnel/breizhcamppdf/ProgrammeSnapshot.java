@@ -0,0 +1,248 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import fr.ybonnel.breizhcamppdf.model.*;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary copy of the last programme loaded, so that a restarted server can render without waiting
+ * for schedule.json and talks.json.
+ * <p>
+ * The file is written after each successful load and read back through a memory mapping :
+ * no JSON parsing, no network, only the indexes of {@link DataService} are rebuilt.
+ * The versions of the feeds are kept, so that the next refresh revalidates them instead of downloading them again.
+ * Its path is given by "programme.snapshot" (breizhcamp-pdf-programme.bin in the temporary directory by default).
+ */
+public final class ProgrammeSnapshot {
+
+    private static final int MAGIC = 0x42435047;
+    private static final int VERSION = 2;
+
+    private static final File FILE = new File(System.getProperty("programme.snapshot",
+            new File(System.getProperty("java.io.tmpdir"), "breizhcamp-pdf-programme.bin").getPath()));
+
+    private ProgrammeSnapshot() {
+    }
+
+    public static File getFile() {
+        return FILE;
+    }
+
+    /**
+     * Write the programme in the file, replacing the previous snapshot only once fully written.
+     */
+    public static void write(DataService service, File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        directory.mkdirs();
+        File tmp = File.createTempFile("programme", ".tmp", directory);
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                writeVersion(output, service.getScheduleVersion());
+                writeVersion(output, service.getTalksVersion());
+
+                List<Jour> jours = service.getProgramme().getJours();
+                output.writeInt(jours.size());
+                for (Jour jour : jours) {
+                    writeString(output, jour.title);
+                    writeString(output, jour.date);
+                    output.writeInt(jour.getProposals().size());
+                    for (Talk talk : jour.getProposals()) {
+                        writeString(output, talk.id);
+                        writeString(output, talk.start);
+                        writeString(output, talk.end);
+                        writeString(output, talk.format);
+                        writeString(output, talk.title);
+                        writeString(output, talk.room);
+                        writeString(output, talk.track);
+                    }
+                }
+
+                Map<String, TalkDetail> details = service.getTalkDetails();
+                output.writeInt(details.size());
+                for (Map.Entry<String, TalkDetail> entry : details.entrySet()) {
+                    TalkDetail detail = entry.getValue();
+                    writeString(output, entry.getKey());
+                    writeString(output, detail.getId());
+                    writeString(output, detail.getTitle());
+                    writeString(output, detail.getDescription());
+                    writeString(output, detail.getTrack());
+                    output.writeInt(detail.getSpeakers().size());
+                    for (Speaker speaker : detail.getSpeakers()) {
+                        writeString(output, speaker.getId());
+                        writeString(output, speaker.getAvatar());
+                        writeString(output, speaker.getDescription());
+                        writeString(output, speaker.getFullname());
+                        output.writeInt(speaker.getLiens().size());
+                        for (Lien lien : speaker.getLiens()) {
+                            writeString(output, lien.getLabel());
+                            writeString(output, lien.getUrl());
+                        }
+                    }
+                    output.writeInt(detail.getTags().size());
+                    for (String tag : detail.getTags()) {
+                        writeString(output, tag);
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * @return the programme of the snapshot, null if there is no snapshot or it can't be read.
+     */
+    public static DataService read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                System.err.println("Ignoring programme snapshot " + file + " : unknown format");
+                return null;
+            }
+            Feed.Version scheduleVersion = readVersion(buffer);
+            Feed.Version talksVersion = readVersion(buffer);
+
+            Programme programme = new Programme();
+            int joursCount = readCount(buffer);
+            for (int i = 0; i < joursCount; i++) {
+                Jour jour = new Jour();
+                jour.title = readString(buffer);
+                jour.date = readString(buffer);
+                int talksCount = readCount(buffer);
+                for (int j = 0; j < talksCount; j++) {
+                    Talk talk = new Talk();
+                    talk.id = readString(buffer);
+                    talk.start = readString(buffer);
+                    talk.end = readString(buffer);
+                    talk.format = readString(buffer);
+                    talk.formatKey = FormatIcons.INSTANCE.getKey(talk.format);
+                    talk.title = readString(buffer);
+                    talk.room = readString(buffer);
+                    talk.track = readString(buffer);
+                    jour.getProposals().add(talk);
+                }
+                programme.getJours().add(jour);
+            }
+
+            Map<String, TalkDetail> details = new HashMap<>();
+            int detailsCount = readCount(buffer);
+            for (int i = 0; i < detailsCount; i++) {
+                String key = readString(buffer);
+                String id = readString(buffer);
+                String title = readString(buffer);
+                String description = readString(buffer);
+                String track = readString(buffer);
+                int speakersCount = readCount(buffer);
+                List<Speaker> speakers = new ArrayList<>(speakersCount);
+                for (int j = 0; j < speakersCount; j++) {
+                    String speakerId = readString(buffer);
+                    String avatar = readString(buffer);
+                    String speakerDescription = readString(buffer);
+                    String fullname = readString(buffer);
+                    int liensCount = readCount(buffer);
+                    List<Lien> liens = new ArrayList<>(liensCount);
+                    for (int k = 0; k < liensCount; k++) {
+                        liens.add(new Lien(readString(buffer), readString(buffer)));
+                    }
+                    speakers.add(new Speaker(speakerId, avatar, speakerDescription, fullname, liens));
+                }
+                int tagsCount = readCount(buffer);
+                List<String> tags = new ArrayList<>(tagsCount);
+                for (int j = 0; j < tagsCount; j++) {
+                    tags.add(readString(buffer));
+                }
+                details.put(key, new TalkDetail(id, title, description, track, speakers, tags));
+            }
+            return new DataService(programme, details, scheduleVersion, talksVersion);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            System.err.println("Ignoring programme snapshot " + file + " : " + e);
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    private static void writeVersion(DataOutputStream output, Feed.Version version) throws IOException {
+        output.writeBoolean(version != null);
+        if (version != null) {
+            writeString(output, version.getEtag());
+            writeString(output, version.getLastModified());
+            writeString(output, version.getSha1());
+        }
+    }
+
+    private static Feed.Version readVersion(ByteBuffer buffer) {
+        if (buffer.get() == 0) {
+            return null;
+        }
+        return new Feed.Version(readString(buffer), readString(buffer), readString(buffer));
+    }
+
+    /**
+     * Every element takes at least 4 bytes, a count is checked against the rest of the file
+     * before anything is allocated for it.
+     */
+    private static int readCount(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / 4) {
+            throw new IllegalArgumentException("Invalid count " + count);
+        }
+        return count;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
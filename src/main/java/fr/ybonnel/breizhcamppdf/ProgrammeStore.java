@@ -0,0 +1,150 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the snapshot of the programme shared by all renderers.
+ * <p>
+ * The snapshot is reloaded in background every "programme.refresh.minutes" (5 by default)
+ * and replaced only once the new one is fully loaded : requests never wait for schedule.json or talks.json,
+ * except the very first one if nothing was loaded yet.
+ * <p>
+ * Each loaded programme is saved as a {@link ProgrammeSnapshot} : after a restart this snapshot is read by
+ * {@link #startRefresh()} and served while a fresh programme is loaded in background.
+ */
+public enum ProgrammeStore {
+    INSTANCE;
+
+    private static final long REFRESH_INTERVAL = Long.getLong("programme.refresh.minutes", 5);
+
+    private final AtomicReference<DataService> current = new AtomicReference<>();
+
+    private ScheduledExecutorService refresher;
+    private boolean refreshStarted;
+
+    /**
+     * @return the current snapshot, loaded if none was loaded yet.
+     */
+    public DataService get() {
+        DataService service = current.get();
+        if (service == null) {
+            synchronized (this) {
+                service = current.get();
+                if (service == null) {
+                    service = DataService.load();
+                    current.set(service);
+                    save(service);
+                }
+            }
+        }
+        return service;
+    }
+
+    /**
+     * @return the current snapshot, null if none was loaded yet.
+     */
+    public DataService getIfLoaded() {
+        return current.get();
+    }
+
+    /**
+     * Reload the programme, keeping the current snapshot if it fails or if the feeds did not change.
+     * @return true if the snapshot was replaced.
+     */
+    public boolean refresh() {
+        try {
+            DataService previous = current.get();
+            DataService service = DataService.reload(previous);
+            if (service == previous) {
+                return false;
+            }
+            current.set(service);
+            save(service);
+            return true;
+        } catch (RuntimeException e) {
+            System.err.println("Can't refresh programme, keeping the previous one : " + e);
+            return false;
+        }
+    }
+
+    private static void save(DataService service) {
+        try {
+            ProgrammeSnapshot.write(service, ProgrammeSnapshot.getFile());
+        } catch (IOException e) {
+            System.err.println("Can't write programme snapshot : " + e);
+        }
+    }
+
+    private synchronized ScheduledExecutorService getRefresher() {
+        if (refresher == null) {
+            refresher = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("programme-refresh").setDaemon(true).build());
+        }
+        return refresher;
+    }
+
+    /**
+     * Reload the programme in background, the snapshot read at startup may be outdated.
+     */
+    private void refreshNow() {
+        getRefresher().execute(new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        });
+    }
+
+    /**
+     * Read the snapshot saved by the previous run, if any, then reload the programme in background.
+     */
+    private void readSnapshot() {
+        DataService service = ProgrammeSnapshot.read(ProgrammeSnapshot.getFile());
+        if (service != null) {
+            System.out.println("Programme loaded from snapshot " + ProgrammeSnapshot.getFile());
+            current.compareAndSet(null, service);
+            refreshNow();
+        }
+    }
+
+    /**
+     * Start the background refresh, the snapshot of the previous run is read now so that the first request
+     * does not wait for it.
+     */
+    public synchronized void startRefresh() {
+        if (!refreshStarted) {
+            refreshStarted = true;
+            if (current.get() == null) {
+                readSnapshot();
+            }
+            getRefresher().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    refresh();
+                }
+            }, REFRESH_INTERVAL, REFRESH_INTERVAL, TimeUnit.MINUTES);
+        }
+    }
+}
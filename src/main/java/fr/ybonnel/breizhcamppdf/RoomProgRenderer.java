@@ -50,11 +50,35 @@ public class RoomProgRenderer {
 
     private Document document;
     private PdfWriter pdfWriter;
-    private DataService service = new DataService();
+    private DataService service;
 
     public RoomProgRenderer(Document document, PdfWriter pdfWriter) {
+        this(document, pdfWriter, ProgrammeStore.INSTANCE.get());
+    }
+
+    public RoomProgRenderer(Document document, PdfWriter pdfWriter, DataService service) {
         this.document = document;
         this.pdfWriter = pdfWriter;
+        this.service = service;
+    }
+
+    /**
+     * Parts of the programme by room, to render with {@link PdfParts} : one page for each room of each day.
+     */
+    public static List<PdfParts.Part> getParts(final DataService service) {
+        List<PdfParts.Part> parts = new ArrayList<>();
+        for (final String date : service.getDates()) {
+            for (final String room : service.getRooms(date)) {
+                parts.add(new PdfParts.Part() {
+                    @Override
+                    public void render(Document document, PdfWriter writer) throws DocumentException, IOException {
+                        document.setPageSize(PageSize.A4);
+                        new RoomProgRenderer(document, writer, service).createProgrammePage(date, room);
+                    }
+                });
+            }
+        }
+        return parts;
     }
 
     public void render() throws DocumentException, IOException {
@@ -85,71 +109,58 @@ public class RoomProgRenderer {
         return count;
     }
 
-    private List<Talk> createProgrammePages() throws DocumentException, IOException {
-        List<Talk> talksToExplain = new ArrayList<>();
+    private void createProgrammePages() throws DocumentException, IOException {
         document.setPageSize(PageSize.A4);
+        for (String date : service.getDates()) {
+            for (String room : service.getRooms(date)) {
+                createProgrammePage(date, room);
+            }
+        }
+    }
+
+    private void createProgrammePage(String date, String room) throws DocumentException, IOException {
         Font font = new Font();
         font.setStyle(Font.BOLD);
         font.setSize(14);
 
-        for (String date : service.getDates()) {
+        Set<String> tracksInPage = new HashSet<>();
 
+        Map<String, Talk> precedentTalk = new HashMap<>();
+        PdfPTable table = createBeginningOfPage(font, date, room);
+        for (String creneau : service.getCreneaux().get(date)) {
 
-            for (String room : service.getRooms(date)) {
 
-                Set<String> tracksInPage = new HashSet<>();
-
-                Map<String, Talk> precedentTalk = new HashMap<>();
-                PdfPTable table = createBeginningOfPage(font, date, room);
-                for (String creneau : service.getCreneaux().get(date)) {
-
-
-                    PdfPCell cellCreneau = new PdfPCell();
-                    cellCreneau.setPaddingBottom(10);
-                    Paragraph startTime = new Paragraph(creneau);
-                    startTime.setAlignment(Element.ALIGN_CENTER);
-                    cellCreneau.addElement(startTime);
-                    Paragraph endTime = new Paragraph(getEndTime(date, creneau));
-                    endTime.setAlignment(Element.ALIGN_CENTER);
-                    cellCreneau.addElement(endTime);
-                    table.addCell(cellCreneau);
-
-                    PdfPCell cell = new PdfPCell();
-                    cell.setPaddingBottom(10);
-                    cell.setHorizontalAlignment(Element.ALIGN_LEFT);
-
-                    Talk talk = service.getTalkByDateAndCreneauxAndRoom(date, creneau, room);
-                    if (talk != null) {
-                        talksToExplain.add(talk);
-                        remplirCellWithTalk(cell, talk);
-                        cell.setRowspan(getRowSpan(date, talk));
-                        precedentTalk.put(room, talk);
-                        tracksInPage.add(talk.getTrack());
-                        table.addCell(cell);
-                    } else {
-                        talk = precedentTalk.get(room);
-                        if (!(talk != null && talk.getEnd().compareTo(creneau) > 0)) {
-                            table.addCell(cell);
-                        }
-                    }
+            PdfPCell cellCreneau = new PdfPCell();
+            cellCreneau.setPaddingBottom(10);
+            Paragraph startTime = new Paragraph(creneau);
+            startTime.setAlignment(Element.ALIGN_CENTER);
+            cellCreneau.addElement(startTime);
+            Paragraph endTime = new Paragraph(service.getEndTime(date, creneau));
+            endTime.setAlignment(Element.ALIGN_CENTER);
+            cellCreneau.addElement(endTime);
+            table.addCell(cellCreneau);
 
-                }
-                document.add(table);
-                addLegend(tracksInPage);
-            }
-        }
-        return talksToExplain;
-    }
+            PdfPCell cell = new PdfPCell();
+            cell.setPaddingBottom(10);
+            cell.setHorizontalAlignment(Element.ALIGN_LEFT);
 
-    private String getEndTime(String date, String creneau) {
-        String endTime = "99:99";
-        for (String room : service.getRooms(date, false)) {
             Talk talk = service.getTalkByDateAndCreneauxAndRoom(date, creneau, room);
-            if (talk != null && talk.getEnd().compareTo(endTime) < 0) {
-                endTime = talk.getEnd();
+            if (talk != null) {
+                remplirCellWithTalk(cell, talk);
+                cell.setRowspan(getRowSpan(date, talk));
+                precedentTalk.put(room, talk);
+                tracksInPage.add(talk.getTrack());
+                table.addCell(cell);
+            } else {
+                talk = precedentTalk.get(room);
+                if (!(talk != null && talk.getEnd().compareTo(creneau) > 0)) {
+                    table.addCell(cell);
+                }
             }
+
         }
-        return endTime;
+        document.add(table);
+        addLegend(tracksInPage);
     }
 
     private void addLegend(Set<String> tracksInPage) throws DocumentException {
@@ -199,7 +210,7 @@ public class RoomProgRenderer {
     }
 
     private void remplirCellWithTalk(PdfPCell cell, Talk talk) throws DocumentException, IOException {
-        Image image = AvatarService.INSTANCE.getImage(RoomProgRenderer.class.getResource("/formats/" + talk.getFormat().replaceAll(" ", "").replaceAll("-", "").replaceAll("'", "").toLowerCase()  + ".png"));
+        Image image = FormatIcons.INSTANCE.getIcon(talk.getFormatKey());
 
 
         float[] widths = {0.05f, 0.95f};
@@ -218,7 +229,7 @@ public class RoomProgRenderer {
         track.setAlignment(Paragraph.ALIGN_CENTER);
 
         subCell.addElement(track);
-        TalkDetail detail = TalkService.INSTANCE.getTalkDetail(talk);
+        TalkDetail detail = service.getTalkDetail(talk);
         if (detail != null) {
             for (Speaker speaker : detail.getSpeakers()) {
                 Paragraph speakerText = new Paragraph(speaker.getFullname(), speakerFont);
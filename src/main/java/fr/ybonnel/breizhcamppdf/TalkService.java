@@ -18,42 +18,72 @@ package fr.ybonnel.breizhcamppdf;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import fr.ybonnel.breizhcamppdf.model.Talk;
+import com.google.gson.stream.JsonReader;
+import fr.ybonnel.breizhcamppdf.model.Speaker;
 import fr.ybonnel.breizhcamppdf.model.TalkDetail;
 
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
 public enum TalkService {
     INSTANCE;
 
-    private Map<String, TalkDetail> talks = new HashMap<>();
-
     private Gson gson = new GsonBuilder().create();
 
-    public TalkDetail getTalkDetail(Talk talk) {
-        if (talks.isEmpty()) {
-            try {
-                System.out.println("Getting talk details");
-                URL url = new URL("http://www.breizhcamp.org/json/talks.json");
-                URLConnection connection = url.openConnection();
-                TalkDetail[] details = gson.fromJson(new InputStreamReader(connection.getInputStream()), TalkDetail[].class);
-                for (TalkDetail detail : details) {
+    /**
+     * @return url of talks.json, the "talks.url" property is there for the fixtures of the benchmarks.
+     */
+    public URL getUrl() throws MalformedURLException {
+        return new URL(System.getProperty("talks.url", "http://www.breizhcamp.org/json/talks.json"));
+    }
+
+    /**
+     * Parse talks.json.
+     * @param url url of talks.json, avatars may be relative to it.
+     * @param content content of talks.json.
+     * @return talk details by id.
+     */
+    public Map<String, TalkDetail> loadTalkDetails(URL url, Feed.Content content) {
+        try {
+            System.out.println("Getting talk details");
+            long parseStart = System.nanoTime();
+            Map<String, TalkDetail> talks = new HashMap<>();
+            // Details are added as they are read, the feed is never held in memory.
+            try (JsonReader reader = new JsonReader(new InputStreamReader(content.open(), StandardCharsets.UTF_8))) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    TalkDetail detail = gson.fromJson(reader, TalkDetail.class);
+                    resolveAvatars(url, detail);
                     talks.put(detail.getId(), detail);
                 }
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+                reader.endArray();
             }
+            Metrics.INSTANCE.observe(Metrics.Phase.JSON_PARSE, System.nanoTime() - parseStart);
+            return talks;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
-        TalkDetail detail = talks.get(talk.getId());
-        if (detail != null) {
-            detail.setTalk(talk);
+    }
+
+    /**
+     * Avatars may be relative to talks.json, as in the fixtures of the benchmarks.
+     * The absolute urls of breizhcamp.org are kept as they are.
+     */
+    private static void resolveAvatars(URL talksUrl, TalkDetail detail) {
+        for (Speaker speaker : detail.getSpeakers()) {
+            if (speaker.getAvatar() != null && !speaker.getAvatar().isEmpty()) {
+                try {
+                    speaker.setAvatar(new URL(talksUrl, speaker.getAvatar()).toString());
+                } catch (MalformedURLException ignore) {
+                    // Kept as is, it will fail as an avatar.
+                }
+            }
         }
-        return detail;
     }
 
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Client of breizhcamp.org, used by all the fetches of feeds and images.
+ * <p>
+ * Requests have connect and read timeouts ("upstream.connect.timeout.ms", 5s by default,
+ * and "upstream.read.timeout.ms", 20s by default), so a slow server can't hang a render,
+ * and accept gzip responses.
+ * Connections are kept alive by the JDK as long as responses are read and closed, not disconnected :
+ * its pool keeps "http.maxConnections" connections by host, set here to "upstream.max.connections" (8 by default)
+ * unless already set.
+ * The latency of each host, until the response headers are received, is reported in {@link Metrics}.
+ * Urls which are not http (files, resources) are simply opened.
+ */
+public enum UpstreamClient {
+    INSTANCE;
+
+    private static final int CONNECT_TIMEOUT = Integer.getInteger("upstream.connect.timeout.ms", 5000);
+
+    private static final int READ_TIMEOUT = Integer.getInteger("upstream.read.timeout.ms", 20000);
+
+    static {
+        // Read by the JDK when its first http connection is opened.
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", Integer.toString(Integer.getInteger("upstream.max.connections", 8)));
+        }
+    }
+
+    /**
+     * Send a GET request and wait for the response headers.
+     * The body must be read with {@link #getBody(HttpURLConnection)} and closed, so that the connection is reused.
+     * @param url http url.
+     * @param headers headers of the request, as If-None-Match.
+     * @return the connection, with the response received.
+     */
+    public HttpURLConnection connect(URL url, Map<String, String> headers) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        long start = System.nanoTime();
+        try {
+            connection.getResponseCode();
+            Metrics.INSTANCE.observeUpstream(url.getHost(), System.nanoTime() - start, false);
+        } catch (IOException e) {
+            Metrics.INSTANCE.observeUpstream(url.getHost(), System.nanoTime() - start, true);
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * @return the body of the response, decompressed.
+     * @throws IOException if the response is an error, the connection is then released.
+     */
+    public InputStream getBody(HttpURLConnection connection) throws IOException {
+        if (connection.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            release(connection);
+        }
+        InputStream input = connection.getInputStream();
+        return "gzip".equalsIgnoreCase(connection.getContentEncoding()) ? new GZIPInputStream(input) : input;
+    }
+
+    /**
+     * Release a response whose body is not used, as a 304.
+     */
+    public void discard(HttpURLConnection connection) {
+        if (connection.getErrorStream() != null) {
+            release(connection);
+            return;
+        }
+        try (InputStream input = connection.getInputStream()) {
+            ByteStreams.copy(input, ByteStreams.nullOutputStream());
+        } catch (IOException ignore) {
+            // The connection is not reused.
+        }
+    }
+
+    /**
+     * Read what is left of the error body, so that the connection can be reused.
+     */
+    private static void release(HttpURLConnection connection) {
+        try (InputStream error = connection.getErrorStream()) {
+            if (error != null) {
+                ByteStreams.copy(error, ByteStreams.nullOutputStream());
+            }
+        } catch (IOException ignore) {
+            // The connection is not reused.
+        }
+    }
+
+    /**
+     * @param url url to get.
+     * @return the content of the url, decompressed.
+     */
+    public InputStream openStream(URL url) throws IOException {
+        if (!"http".equals(url.getProtocol()) && !"https".equals(url.getProtocol())) {
+            return url.openStream();
+        }
+        return getBody(connect(url, Collections.<String, String>emptyMap()));
+    }
+}
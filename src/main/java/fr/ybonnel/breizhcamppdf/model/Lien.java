@@ -20,6 +20,14 @@ public class Lien {
     private String label;
     private String url;
 
+    public Lien() {
+    }
+
+    public Lien(String label, String url) {
+        this.label = label;
+        this.url = url;
+    }
+
     public String getLabel() {
         return label;
     }
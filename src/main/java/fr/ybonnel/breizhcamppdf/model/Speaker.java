@@ -26,6 +26,17 @@ public class Speaker {
     private String fullname;
     private List<Lien> liens;
 
+    public Speaker() {
+    }
+
+    public Speaker(String id, String avatar, String description, String fullname, List<Lien> liens) {
+        this.id = id;
+        this.avatar = avatar;
+        this.description = description;
+        this.fullname = fullname;
+        this.liens = liens;
+    }
+
     public String getId() {
         return id;
     }
@@ -34,6 +45,10 @@ public class Speaker {
         return avatar;
     }
 
+    public void setAvatar(String avatar) {
+        this.avatar = avatar;
+    }
+
     public String getDescription() {
         return description;
     }
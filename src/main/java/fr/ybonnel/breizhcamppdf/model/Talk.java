@@ -21,6 +21,7 @@ public class Talk {
     public String start;
     public String end;
     public String format;
+    public String formatKey;
     public String title;
     public String room;
     public String track;
@@ -33,6 +34,13 @@ public class Talk {
         return format;
     }
 
+    /**
+     * @return key of the icon of the format, see {@link fr.ybonnel.breizhcamppdf.FormatIcons}.
+     */
+    public String getFormatKey() {
+        return formatKey;
+    }
+
     public String getTitle() {
         return title;
     }
@@ -26,7 +26,18 @@ public class TalkDetail {
     private String track;
     private List<Speaker> speakers;
     private List<String> tags;
-    private Talk talk;
+
+    public TalkDetail() {
+    }
+
+    public TalkDetail(String id, String title, String description, String track, List<Speaker> speakers, List<String> tags) {
+        this.id = id;
+        this.title = title;
+        this.description = description;
+        this.track = track;
+        this.speakers = speakers;
+        this.tags = tags;
+    }
 
     public String getId() {
         return id;
@@ -40,6 +51,10 @@ public class TalkDetail {
         return description;
     }
 
+    public String getTrack() {
+        return track;
+    }
+
     public List<Speaker> getSpeakers() {
         if (speakers == null) {
             speakers = new ArrayList<>();
@@ -53,12 +68,4 @@ public class TalkDetail {
         }
         return tags;
     }
-
-    public void setTalk(Talk talk) {
-        this.talk = talk;
-    }
-
-    public Talk getTalk() {
-        return talk;
-    }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import com.google.common.hash.Hashing;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AssetCacheTest {
+
+    private static final byte[] LOGO = "logo v1".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NEW_LOGO = "logo v2".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubServer server;
+
+    /**
+     * Entries are always revalidated.
+     */
+    private AssetCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubServer();
+        cache = new AssetCache(folder.getRoot(), 0);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void first_fetch_downloads_and_stores_the_content() throws IOException {
+        server.serve(LOGO, "\"v1\"");
+
+        assertArrayEquals(LOGO, cache.get(server.getUrl("/img/logo.png")));
+
+        assertEquals(1, server.getRequests().size());
+        assertNull(server.getRequests().get(0).getFirst("If-None-Match"));
+        assertTrue(object(LOGO).isFile());
+    }
+
+    @Test
+    public void not_modified_keeps_the_cached_content() throws IOException {
+        server.serve(LOGO, "\"v1\"");
+        cache.get(server.getUrl("/img/logo.png"));
+
+        assertArrayEquals(LOGO, cache.get(server.getUrl("/img/logo.png")));
+
+        assertEquals(2, server.getRequests().size());
+        assertEquals("\"v1\"", server.getRequests().get(1).getFirst("If-None-Match"));
+        assertTrue(object(LOGO).isFile());
+    }
+
+    @Test
+    public void new_content_replaces_the_entry() throws IOException {
+        server.serve(LOGO, "\"v1\"");
+        cache.get(server.getUrl("/img/logo.png"));
+        server.serve(NEW_LOGO, "\"v2\"");
+
+        assertArrayEquals(NEW_LOGO, cache.get(server.getUrl("/img/logo.png")));
+        assertTrue(object(NEW_LOGO).isFile());
+
+        // The entry now points to the new content : revalidated with its ETag, and served from the disk.
+        assertArrayEquals(NEW_LOGO, cache.get(server.getUrl("/img/logo.png")));
+        assertEquals("\"v2\"", server.getRequests().get(2).getFirst("If-None-Match"));
+    }
+
+    private File object(byte[] content) {
+        return new File(new File(folder.getRoot(), "objects"), Hashing.sha1().hashBytes(content).toString());
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import com.google.common.base.Ticker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AvatarServiceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicLong now = new AtomicLong();
+
+    private String url;
+
+    @Before
+    public void setUp() throws IOException {
+        AvatarService.INSTANCE.setTicker(new Ticker() {
+            @Override
+            public long read() {
+                return now.get();
+            }
+        });
+        File avatar = new File(folder.getRoot(), "avatar.png");
+        Files.write(avatar.toPath(), "not an image".getBytes(StandardCharsets.UTF_8));
+        url = avatar.toURI().toString();
+    }
+
+    @After
+    public void tearDown() {
+        AvatarService.INSTANCE.setTicker(Ticker.systemTicker());
+    }
+
+    @Test
+    public void failed_avatar_is_not_retried_before_the_ttl() {
+        long loads = AvatarService.INSTANCE.getFailureCount();
+        long failureHits = AvatarService.INSTANCE.getFailureHitCount();
+
+        assertNull(AvatarService.INSTANCE.getImage(url));
+        assertEquals(loads + 1, AvatarService.INSTANCE.getFailureCount());
+
+        now.addAndGet(TimeUnit.MINUTES.toNanos(9));
+        assertNull(AvatarService.INSTANCE.getImage(url));
+        AvatarService.INSTANCE.prefetch(Collections.singleton(url));
+        assertEquals(loads + 1, AvatarService.INSTANCE.getFailureCount());
+        assertEquals(failureHits + 2, AvatarService.INSTANCE.getFailureHitCount());
+
+        // Once the TTL is over, the prefetch retries it.
+        now.addAndGet(TimeUnit.MINUTES.toNanos(2));
+        AvatarService.INSTANCE.prefetch(Collections.singleton(url));
+        assertEquals(loads + 2, AvatarService.INSTANCE.getFailureCount());
+    }
+
+    @Test
+    public void prefetch_counts_one_miss_per_download_and_no_hit() throws IOException {
+        File avatar = new File(folder.getRoot(), "real.png");
+        ImageIO.write(new BufferedImage(40, 40, BufferedImage.TYPE_INT_RGB), "png", avatar);
+        String realUrl = avatar.toURI().toString();
+        long hits = AvatarService.INSTANCE.getHitCount();
+        long misses = AvatarService.INSTANCE.getMissCount();
+
+        AvatarService.INSTANCE.prefetch(Collections.singleton(realUrl));
+        assertEquals(misses + 1, AvatarService.INSTANCE.getMissCount());
+
+        // Already loaded, the prefetch of the next render leaves the stats as they are.
+        AvatarService.INSTANCE.prefetch(Collections.singleton(realUrl));
+        assertEquals(misses + 1, AvatarService.INSTANCE.getMissCount());
+        assertEquals(hits, AvatarService.INSTANCE.getHitCount());
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ByteRangesTest {
+
+    @Test
+    public void closed_range() {
+        assertRanges(ByteRanges.parse("bytes=0-499", 1000), 0, 499);
+    }
+
+    @Test
+    public void suffix_range_gives_the_last_bytes() {
+        assertRanges(ByteRanges.parse("bytes=-300", 1000), 700, 999);
+        assertRanges(ByteRanges.parse("bytes=-3000", 1000), 0, 999);
+    }
+
+    @Test
+    public void open_ended_range_goes_to_the_end() {
+        assertRanges(ByteRanges.parse("bytes=900-", 1000), 900, 999);
+        assertRanges(ByteRanges.parse("bytes=900-5000", 1000), 900, 999);
+    }
+
+    @Test
+    public void unsatisfiable_ranges_are_dropped() {
+        assertTrue(ByteRanges.parse("bytes=1000-1200", 1000).isEmpty());
+        assertTrue(ByteRanges.parse("bytes=-0", 1000).isEmpty());
+        assertRanges(ByteRanges.parse("bytes=1000-1200, 0-9", 1000), 0, 9);
+    }
+
+    @Test
+    public void too_many_ranges_give_the_whole_content() {
+        StringBuilder header = new StringBuilder("bytes=0-0");
+        for (int i = 1; i < 17; i++) {
+            header.append(',').append(i * 10).append('-').append(i * 10);
+        }
+        assertNull(ByteRanges.parse(header.toString(), 1000));
+    }
+
+    @Test
+    public void malformed_header_gives_the_whole_content() {
+        assertNull(ByteRanges.parse("items=0-10", 1000));
+        assertNull(ByteRanges.parse("bytes=10", 1000));
+        assertNull(ByteRanges.parse("bytes=a-b", 1000));
+        assertNull(ByteRanges.parse("bytes=20-10", 1000));
+        assertNull(ByteRanges.parse("bytes=--5", 1000));
+    }
+
+    @Test
+    public void ranges_are_sorted() {
+        assertRanges(ByteRanges.parse("bytes=500-599, 0-99", 1000), 0, 99, 500, 599);
+    }
+
+    @Test
+    public void overlapping_and_adjacent_ranges_are_merged() {
+        assertRanges(ByteRanges.parse("bytes=0-99, 50-149", 1000), 0, 149);
+        assertRanges(ByteRanges.parse("bytes=100-199, 0-99", 1000), 0, 199);
+        assertRanges(ByteRanges.parse("bytes=0-499, 100-199, -100", 1000), 0, 499, 900, 999);
+    }
+
+    /**
+     * @param bounds first and last byte of each expected range.
+     */
+    private static void assertRanges(List<ByteRanges.Range> ranges, long... bounds) {
+        assertEquals(bounds.length / 2, ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            assertEquals(bounds[2 * i], ranges.get(i).getFirst());
+            assertEquals(bounds[2 * i + 1], ranges.get(i).getLast());
+        }
+    }
+}
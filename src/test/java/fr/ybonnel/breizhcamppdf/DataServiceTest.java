@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import fr.ybonnel.breizhcamppdf.model.Jour;
+import fr.ybonnel.breizhcamppdf.model.Programme;
+import fr.ybonnel.breizhcamppdf.model.Talk;
+import fr.ybonnel.breizhcamppdf.model.TalkDetail;
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+
+public class DataServiceTest {
+
+    private static final String DATE = "24/03/2016";
+
+    @Test
+    public void end_time_is_the_earliest_end_of_the_creneau() {
+        DataService service = createService(
+                createTalk("1", "Amphi A", "10:00", "10:50"),
+                createTalk("2", "Amphi B", "10:00", "10:15"));
+
+        assertEquals("10:15", service.getEndTime(DATE, "10:00"));
+        assertEquals("99:99", service.getEndTime(DATE, "11:00"));
+    }
+
+    @Test
+    public void replaced_duplicate_does_not_count_in_the_end_time() {
+        Talk kept = createTalk("2", "Amphi A", "10:00", "10:50");
+        DataService service = createService(
+                createTalk("1", "Amphi A", "10:00", "10:15"),
+                kept);
+
+        assertEquals(kept, service.getTalkByDateAndCreneauxAndRoom(DATE, "10:00", "Amphi A"));
+        assertEquals("10:50", service.getEndTime(DATE, "10:00"));
+    }
+
+    private static DataService createService(Talk... talks) {
+        Jour jour = new Jour();
+        jour.title = DATE;
+        jour.date = DATE;
+        for (Talk talk : talks) {
+            jour.getProposals().add(talk);
+        }
+        Programme programme = new Programme();
+        programme.getJours().add(jour);
+        return new DataService(programme, new HashMap<String, TalkDetail>());
+    }
+
+    private static Talk createTalk(String id, String room, String start, String end) {
+        Talk talk = new Talk();
+        talk.id = id;
+        talk.title = "Talk " + id;
+        talk.room = room;
+        talk.start = start;
+        talk.end = end;
+        return talk;
+    }
+}
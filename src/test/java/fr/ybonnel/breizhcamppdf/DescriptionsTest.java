@@ -0,0 +1,43 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import com.itextpdf.text.Element;
+import com.itextpdf.text.Paragraph;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DescriptionsTest {
+
+    @Test
+    public void description_is_converted_from_markdown() throws IOException {
+        List<Element> elements = Descriptions.INSTANCE.getElements("Un talk *important*.");
+
+        assertEquals(1, elements.size());
+        assertEquals("Un talk important.", ((Paragraph) elements.get(0)).getContent().trim());
+    }
+
+    @Test
+    public void null_description_is_empty() throws IOException {
+        assertTrue(Descriptions.INSTANCE.getElements(null).isEmpty());
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import com.google.common.io.ByteStreams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FeedTest {
+
+    private static final byte[] SCHEDULE = "[{\"id\":1}]".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NEW_SCHEDULE = "[{\"id\":1},{\"id\":2}]".getBytes(StandardCharsets.UTF_8);
+
+    private StubServer server;
+
+    private URL url;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubServer();
+        url = new URL(server.getUrl("/json/schedule.json"));
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void first_fetch_gives_the_content() throws IOException {
+        server.serve(SCHEDULE, "\"v1\"");
+
+        try (Feed.Content content = Feed.fetch("schedule", url, null)) {
+            assertTrue(content.isChanged());
+            assertEquals("\"v1\"", content.getVersion().getEtag());
+            try (InputStream input = content.open()) {
+                assertArrayEquals(SCHEDULE, ByteStreams.toByteArray(input));
+            }
+        }
+    }
+
+    @Test
+    public void not_modified_keeps_the_loaded_version() throws IOException {
+        server.serve(SCHEDULE, "\"v1\"");
+        Feed.Version loaded = load();
+
+        assertNull(Feed.fetch("schedule", url, loaded));
+        assertEquals("\"v1\"", server.getRequests().get(1).getFirst("If-None-Match"));
+    }
+
+    @Test
+    public void same_content_is_not_changed_but_has_the_new_etag() throws IOException {
+        server.serve(SCHEDULE, "\"v1\"");
+        Feed.Version loaded = load();
+        server.serve(SCHEDULE, "\"v2\"");
+
+        try (Feed.Content content = Feed.fetch("schedule", url, loaded)) {
+            assertFalse(content.isChanged());
+            assertEquals("\"v2\"", content.getVersion().getEtag());
+            assertEquals(loaded.getSha1(), content.getVersion().getSha1());
+        }
+    }
+
+    @Test
+    public void new_content_is_changed() throws IOException {
+        server.serve(SCHEDULE, "\"v1\"");
+        Feed.Version loaded = load();
+        server.serve(NEW_SCHEDULE, "\"v2\"");
+
+        try (Feed.Content content = Feed.fetch("schedule", url, loaded)) {
+            assertTrue(content.isChanged());
+            assertEquals("\"v2\"", content.getVersion().getEtag());
+            try (InputStream input = content.open()) {
+                assertArrayEquals(NEW_SCHEDULE, ByteStreams.toByteArray(input));
+            }
+        }
+    }
+
+    private Feed.Version load() throws IOException {
+        try (Feed.Content content = Feed.fetch("schedule", url, null)) {
+            return content.getVersion();
+        }
+    }
+}
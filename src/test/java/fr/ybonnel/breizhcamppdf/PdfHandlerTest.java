@@ -0,0 +1,180 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import fr.ybonnel.breizhcamppdf.model.Jour;
+import fr.ybonnel.breizhcamppdf.model.Programme;
+import fr.ybonnel.breizhcamppdf.model.Talk;
+import fr.ybonnel.breizhcamppdf.model.TalkDetail;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PdfHandlerTest {
+
+    private static final int CALLERS = 8;
+
+    private final DataService service = new DataService(new Programme(), new HashMap<String, TalkDetail>());
+
+    private final ExecutorService renderer = Executors.newSingleThreadExecutor();
+    private final ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+
+    /**
+     * Renders are held until released, to have all callers in while the first render runs.
+     */
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final AtomicInteger renders = new AtomicInteger();
+
+    private volatile boolean failing;
+
+    private final PdfHandler handler = new PdfHandler() {
+        @Override
+        protected RenderedPdf render(PdfVariant variant, DataService service, String fingerprint) throws IOException {
+            renders.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (failing) {
+                throw new IOException("Render failed");
+            }
+            return new RenderedPdf(fingerprint, service.getGeneration(), "%PDF-1".getBytes(StandardCharsets.UTF_8), System.currentTimeMillis());
+        }
+    };
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        callers.shutdownNow();
+        renderer.shutdownNow();
+    }
+
+    @Test
+    public void concurrent_calls_share_one_render() throws Exception {
+        List<ListenableFuture<PdfHandler.RenderedPdf>> pdfs = getPdfConcurrently();
+        release.countDown();
+
+        PdfHandler.RenderedPdf pdf = pdfs.get(0).get(10, TimeUnit.SECONDS);
+        for (ListenableFuture<PdfHandler.RenderedPdf> other : pdfs) {
+            assertSame(pdf, other.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, renders.get());
+
+        // Then served from the cache.
+        assertSame(pdf, handler.getPdf(PdfVariant.PROGRAMME, service, renderer).get(10, TimeUnit.SECONDS));
+        assertEquals(1, renders.get());
+    }
+
+    @Test
+    public void concurrent_calls_share_a_failure_which_is_retried_afterwards() throws Exception {
+        failing = true;
+        List<ListenableFuture<PdfHandler.RenderedPdf>> pdfs = getPdfConcurrently();
+        release.countDown();
+
+        for (ListenableFuture<PdfHandler.RenderedPdf> pdf : pdfs) {
+            try {
+                pdf.get(10, TimeUnit.SECONDS);
+                fail("The render failed");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+        assertEquals(1, renders.get());
+
+        failing = false;
+        handler.getPdf(PdfVariant.PROGRAMME, service, renderer).get(10, TimeUnit.SECONDS);
+        assertEquals(2, renders.get());
+    }
+
+    @Test
+    public void render_of_older_data_does_not_replace_a_newer_one() throws Exception {
+        Jour jour = new Jour();
+        jour.date = "24/03/2016";
+        Talk talk = new Talk();
+        talk.id = "1";
+        talk.start = "10:00";
+        talk.end = "10:50";
+        jour.getProposals().add(talk);
+        Programme programme = new Programme();
+        programme.getJours().add(jour);
+        DataService newer = new DataService(programme, new HashMap<String, TalkDetail>());
+        release.countDown();
+
+        PdfHandler.RenderedPdf pdf = handler.getPdf(PdfVariant.PROGRAMME, newer, renderer).get(10, TimeUnit.SECONDS);
+        // A request which got the programme before its refresh, rendered after it.
+        handler.getPdf(PdfVariant.PROGRAMME, service, renderer).get(10, TimeUnit.SECONDS);
+        assertEquals(2, renders.get());
+
+        assertSame(pdf, handler.getPdf(PdfVariant.PROGRAMME, newer, renderer).get(10, TimeUnit.SECONDS));
+        assertEquals(2, renders.get());
+    }
+
+    /**
+     * @return PDFs asked by concurrent callers, while the render is held.
+     */
+    private List<ListenableFuture<PdfHandler.RenderedPdf>> getPdfConcurrently() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<ListenableFuture<PdfHandler.RenderedPdf>>> calls = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            calls.add(callers.submit(new Callable<ListenableFuture<PdfHandler.RenderedPdf>>() {
+                @Override
+                public ListenableFuture<PdfHandler.RenderedPdf> call() throws Exception {
+                    start.await();
+                    return handler.getPdf(PdfVariant.PROGRAMME, service, renderer);
+                }
+            }));
+        }
+        start.countDown();
+        List<ListenableFuture<PdfHandler.RenderedPdf>> pdfs = new ArrayList<>();
+        for (Future<ListenableFuture<PdfHandler.RenderedPdf>> call : calls) {
+            pdfs.add(call.get(10, TimeUnit.SECONDS));
+        }
+        return pdfs;
+    }
+
+    @Test
+    public void etag_changes_with_the_content_of_a_render() {
+        PdfHandler.RenderedPdf pdf = new PdfHandler.RenderedPdf("fingerprint", 0, "%PDF-1 a".getBytes(StandardCharsets.UTF_8), 0);
+        PdfHandler.RenderedPdf sameData = new PdfHandler.RenderedPdf("fingerprint", 0, "%PDF-1 b".getBytes(StandardCharsets.UTF_8), 0);
+        PdfHandler.RenderedPdf sameContent = new PdfHandler.RenderedPdf("other", 0, "%PDF-1 a".getBytes(StandardCharsets.UTF_8), 0);
+
+        assertFalse(pdf.getEtag().equals(sameData.getEtag()));
+        assertEquals(pdf.getEtag(), sameContent.getEtag());
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PdfVariantTest {
+
+    @Test
+    public void served_variants_are_found_by_path() {
+        assertEquals(EnumSet.of(PdfVariant.PROGRAMME, PdfVariant.SALLES), PdfVariant.getServed());
+        assertEquals(PdfVariant.PROGRAMME, PdfVariant.fromPath("/programme.pdf"));
+        assertEquals(PdfVariant.SALLES, PdfVariant.fromPath("/salles.pdf"));
+    }
+
+    @Test
+    public void mini_programmes_are_not_served() {
+        assertNull(PdfVariant.fromPath("/mini-prog.pdf"));
+        assertNull(PdfVariant.fromPath("/mini-prog-table.pdf"));
+    }
+}
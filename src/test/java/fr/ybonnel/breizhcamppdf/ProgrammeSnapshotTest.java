@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import fr.ybonnel.breizhcamppdf.model.Jour;
+import fr.ybonnel.breizhcamppdf.model.Lien;
+import fr.ybonnel.breizhcamppdf.model.Programme;
+import fr.ybonnel.breizhcamppdf.model.Speaker;
+import fr.ybonnel.breizhcamppdf.model.Talk;
+import fr.ybonnel.breizhcamppdf.model.TalkDetail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ProgrammeSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void read_gives_back_what_was_written() throws IOException {
+        DataService service = createService();
+        File file = new File(folder.getRoot(), "programme.bin");
+
+        ProgrammeSnapshot.write(service, file);
+        DataService read = ProgrammeSnapshot.read(file);
+
+        assertEquals(service.getFingerprint(), read.getFingerprint());
+        assertEquals(service.getDates(), read.getDates());
+        Talk talk = read.getTalks().get(0);
+        assertEquals("Conférence", talk.getFormat());
+        assertEquals("conférence", talk.getFormatKey());
+        assertEquals("Amphi A", talk.getRoom());
+        assertEquals("10:00", talk.getStart());
+        assertEquals("10:50", talk.getEnd());
+        assertEquals("Track1", talk.getTrack());
+        assertNull(read.getTalks().get(1).getTitle());
+
+        TalkDetail detail = read.getTalkDetail(talk);
+        assertEquals("Java 8 **en prod**", detail.getDescription());
+        assertEquals(Arrays.asList("java", "prod"), detail.getTags());
+        Speaker speaker = detail.getSpeakers().get(0);
+        assertEquals("Jane Doe", speaker.getFullname());
+        assertEquals("http://www.breizhcamp.org/img/jane.png", speaker.getAvatar());
+        assertEquals("twitter", speaker.getLiens().get(0).getLabel());
+        assertEquals("https://twitter.com/jane", speaker.getLiens().get(0).getUrl());
+
+        assertEquals("\"schedule-1\"", read.getScheduleVersion().getEtag());
+        assertEquals("Wed, 23 Mar 2016 10:00:00 GMT", read.getScheduleVersion().getLastModified());
+        assertEquals("aaaa", read.getScheduleVersion().getSha1());
+        assertNull(read.getTalksVersion().getEtag());
+        assertEquals("bbbb", read.getTalksVersion().getSha1());
+    }
+
+    @Test
+    public void truncated_snapshot_is_ignored() throws IOException {
+        File file = new File(folder.getRoot(), "programme.bin");
+        ProgrammeSnapshot.write(createService(), file);
+        try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+            truncated.setLength(truncated.length() - 10);
+        }
+
+        assertNull(ProgrammeSnapshot.read(file));
+    }
+
+    @Test
+    public void count_beyond_the_file_is_ignored() throws IOException {
+        File file = new File(folder.getRoot(), "programme.bin");
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(file))) {
+            output.writeInt(0x42435047);
+            output.writeInt(2);
+            output.writeBoolean(false);
+            output.writeBoolean(false);
+            // No day, one detail with null strings and too many speakers.
+            output.writeInt(0);
+            output.writeInt(1);
+            for (int i = 0; i < 5; i++) {
+                output.writeInt(-1);
+            }
+            output.writeInt(Integer.MAX_VALUE);
+        }
+
+        assertNull(ProgrammeSnapshot.read(file));
+    }
+
+    private static DataService createService() {
+        Jour jour = new Jour();
+        jour.title = "Jeudi";
+        jour.date = "24/03/2016";
+        jour.getProposals().add(createTalk("1", "Java 8 en prod", "Amphi A"));
+        jour.getProposals().add(createTalk("2", null, "Amphi B"));
+        Programme programme = new Programme();
+        programme.getJours().add(jour);
+
+        Speaker speaker = new Speaker("42", "http://www.breizhcamp.org/img/jane.png", "Développeuse", "Jane Doe",
+                Collections.singletonList(new Lien("twitter", "https://twitter.com/jane")));
+        Map<String, TalkDetail> details = new HashMap<>();
+        details.put("1", new TalkDetail("1", "Java 8 en prod", "Java 8 **en prod**", "Track1",
+                Collections.singletonList(speaker), Arrays.asList("java", "prod")));
+
+        return new DataService(programme, details,
+                new Feed.Version("\"schedule-1\"", "Wed, 23 Mar 2016 10:00:00 GMT", "aaaa"),
+                new Feed.Version(null, null, "bbbb"));
+    }
+
+    private static Talk createTalk(String id, String title, String room) {
+        Talk talk = new Talk();
+        talk.id = id;
+        talk.title = title;
+        talk.format = "Conférence";
+        talk.formatKey = FormatIcons.INSTANCE.getKey(talk.format);
+        talk.room = room;
+        talk.track = "Track1";
+        talk.start = "10:00";
+        talk.end = "10:50";
+        return talk;
+    }
+}
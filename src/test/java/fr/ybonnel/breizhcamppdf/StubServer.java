@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.breizhcamppdf;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Stand-in for breizhcamp.org in tests, on the port reserved by the build ("test.http.port").
+ * <p>
+ * It serves one content on every path, with its ETag, and answers 304 to an If-None-Match matching it.
+ */
+public class StubServer implements Closeable {
+
+    private final HttpServer server;
+
+    private final List<Headers> requests = new CopyOnWriteArrayList<>();
+
+    private volatile byte[] content = new byte[0];
+    private volatile String etag;
+
+    public StubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", Integer.getInteger("test.http.port", 0)), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.add(exchange.getRequestHeaders());
+                byte[] body = content;
+                String currentEtag = etag;
+                if (currentEtag != null) {
+                    exchange.getResponseHeaders().set("ETag", currentEtag);
+                    if (currentEtag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                        exchange.sendResponseHeaders(304, -1);
+                        exchange.close();
+                        return;
+                    }
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream output = exchange.getResponseBody()) {
+                    output.write(body);
+                }
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @param content content served from now on.
+     * @param etag its ETag, null for none.
+     */
+    public void serve(byte[] content, String etag) {
+        this.content = content;
+        this.etag = etag;
+    }
+
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    /**
+     * @return headers of the requests received.
+     */
+    public List<Headers> getRequests() {
+        return requests;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}